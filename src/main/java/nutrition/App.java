@@ -1,24 +1,14 @@
 package nutrition;
 
-import nutrition.bot.Bot;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.scheduling.annotation.EnableScheduling;
-import org.telegram.telegrambots.meta.TelegramBotsApi;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
-import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
 @SpringBootApplication
 @EnableScheduling
 public class App {
+    // Бота подключает BotRegistration в режиме из bot.mode
     public static void main(String[] args) {
-        ConfigurableApplicationContext context = SpringApplication.run(App.class, args);
-        try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(context.getBean("bot", Bot.class));
-        } catch (TelegramApiException e) {
-            throw new RuntimeException(e);
-        }
+        SpringApplication.run(App.class, args);
     }
 }
@@ -1,22 +1,38 @@
 package nutrition.bot;
 
 import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.message.PreparedMessage;
+import nutrition.service.LocaleResolver;
 import nutrition.service.RegistrationService;
+import nutrition.service.UserExportService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 @Component
+@Slf4j
 public class Bot extends TelegramLongPollingBot {
 
     private RegistrationService registrationService;
+    private InboundGate inboundGate;
+    private OutboundSender sender;
+    private UserExportService exportService;
+    private LocaleResolver localeResolver;
 
     @Value("${bot.token}")
     private String botToken;
@@ -24,45 +40,155 @@ public class Bot extends TelegramLongPollingBot {
     @Value("${admin.chatid}")
     private String adminChatId;
 
+    @Value("${bot.export.on-shutdown:false}")
+    private boolean exportOnShutdown;
+
+    @Value("${bot.export.shutdown-timeout-seconds:10}")
+    private long exportShutdownTimeoutSeconds;
+
+    @Autowired
+    public Bot(@Value("${bot.sender.http-threads:8}") int httpThreads,
+               @Value("${bot.api-url:https://api.telegram.org}") String apiUrl) {
+        super(botOptions(httpThreads, apiUrl));
+    }
+
+    // executeAsync выполняется на пуле библиотеки, по умолчанию в нём один поток
+    private static DefaultBotOptions botOptions(int httpThreads, String apiUrl) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setMaxThreads(httpThreads);
+        // Другой адрес API нужен для локальной подмены Telegram при проверках
+        options.setBaseUrl(apiUrl + "/bot");
+        return options;
+    }
+
     @Override
     public void onUpdateReceived(Update update) {
         if (update.hasMessage() && update.getMessage().hasText()) {
-            handleMessage(update.getMessage());
+            Message message = update.getMessage();
+            // Поток приёма (опрос или вебхук) только раскладывает апдейты, обработка идёт в полосе чата
+            InboundGate.Outcome outcome = inboundGate.submit(update.getUpdateId(), message.getChatId(),
+                    message.getDate(), () -> handleMessage(message));
+            if (outcome == InboundGate.Outcome.SHED) {
+                executeMessage(registrationService.busyReply(message.getChatId(), getLocale(message)));
+            }
         }
     }
 
     private void handleMessage(Message message) {
         long chatId = message.getChatId();
         String text = message.getText();
-        Locale locale = getLocale(message.getFrom().getLanguageCode());
+        if ("/export".equals(text) && adminChatId.equals(String.valueOf(chatId))) {
+            sendExport(false);
+            return;
+        }
+        Locale locale = getLocale(message);
         executeMessage(registrationService.handleMessage(chatId, text, locale));
     }
 
-    private Locale getLocale(String languageCode) {
-        return languageCode != null ? new Locale(languageCode) : new Locale("ru");
+    private Locale getLocale(Message message) {
+        return localeResolver.resolve(message.getFrom().getLanguageCode());
     }
 
+    // Не ждёт сети: сообщение уходит в очередь отправки
     private void executeMessage(SendMessage message) {
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            throw new RuntimeException(e);
-        }
+        sender.send(message);
     }
 
     @PreDestroy
     private void sendData() {
-        executeMessage(new SendMessage(adminChatId, registrationService.getAllUsers().toString()));
+        if (exportOnShutdown) {
+            sendExport(true);
+        }
     }
 
-    private void handleNewUser(long chatId) {
-        executeMessage(new SendMessage(adminChatId, "New User: " + chatId));
+    /**
+     * Отправляет админу выгрузку пользователей файлом. При остановке - в отдельном потоке с ожиданием
+     * не дольше {@code bot.export.shutdown-timeout-seconds}, потому что пул асинхронной отправки
+     * к этому моменту уже может быть закрыт, а зависшая сеть не должна держать остановку.
+     */
+    private void sendExport(boolean blocking) {
+        UserExportService.Export export;
+        try {
+            export = exportService.export();
+        } catch (IOException e) {
+            log.error("User export failed", e);
+            executeMessage(new SendMessage(adminChatId, "Export failed: " + e.getMessage()));
+            return;
+        }
+        Path file = export.file();
+        SendDocument document = new SendDocument(adminChatId, new InputFile(file.toFile(), "bot-users.ndjson.gz"));
+        document.setCaption("Chats: " + export.chats());
+        if (blocking) {
+            sendBeforeShutdown(document, file);
+        } else {
+            executeAsync(document).whenComplete((result, error) -> {
+                if (error != null) {
+                    log.error("Failed to send user export", error);
+                }
+                deleteExport(file);
+            });
+        }
+    }
+
+    private void sendBeforeShutdown(SendDocument document, Path file) {
+        // Поток-демон не помешает JVM завершиться, если отправка не уложилась в срок
+        Thread upload = new Thread(() -> {
+            try {
+                execute(document);
+            } catch (TelegramApiException e) {
+                log.error("Failed to send user export", e);
+            } finally {
+                deleteExport(file);
+            }
+        }, "export-on-shutdown");
+        upload.setDaemon(true);
+        upload.start();
+        try {
+            upload.join(TimeUnit.SECONDS.toMillis(exportShutdownTimeoutSeconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (upload.isAlive()) {
+            log.warn("User export was not sent within {} s, skipping it", exportShutdownTimeoutSeconds);
+        }
+    }
+
+    private static void deleteExport(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete export file {}", file, e);
+        }
     }
 
     @Autowired
-    public void setRegistrationService(RegistrationService registrationService) {
+    public void setRegistrationService(RegistrationService registrationService, NewUserDigest newUserDigest) {
         this.registrationService = registrationService;
-        this.registrationService.setNewUserCallback(this::handleNewUser);
+        this.registrationService.setNewUserCallback(newUserDigest::record);
+    }
+
+    // Заранее сериализованные ответы уходят своим клиентом, остальные - через библиотеку
+    @Autowired
+    public void setSender(OutboundSender sender, BotApiClient apiClient) {
+        this.sender = sender;
+        sender.setTransport(message -> message instanceof PreparedMessage prepared
+                ? apiClient.sendMessage(prepared)
+                : executeAsync(message));
+    }
+
+    @Autowired
+    public void setExportService(UserExportService exportService) {
+        this.exportService = exportService;
+    }
+
+    @Autowired
+    public void setInboundGate(InboundGate inboundGate) {
+        this.inboundGate = inboundGate;
+    }
+
+    @Autowired
+    public void setLocaleResolver(LocaleResolver localeResolver) {
+        this.localeResolver = localeResolver;
     }
 
     @Override
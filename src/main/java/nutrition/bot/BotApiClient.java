@@ -0,0 +1,62 @@
+package nutrition.bot;
+
+import nutrition.model.message.PreparedMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiValidationException;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Отправка {@link PreparedMessage} готовыми байтами, минуя сериализацию запроса в telegrambots.
+ * Ответ разбирается так же, как в библиотеке, поэтому ошибки API приходят тем же
+ * {@link org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException}, что и у {@code executeAsync}.
+ */
+@Component
+public class BotApiClient {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+    private final URI sendMessageUri;
+
+    @Autowired
+    public BotApiClient(@Value("${bot.api-url:https://api.telegram.org}") String apiUrl,
+                        @Value("${bot.token}") String botToken) {
+        this.sendMessageUri = URI.create(apiUrl + "/bot" + botToken + "/sendmessage");
+    }
+
+    public CompletableFuture<Message> sendMessage(PreparedMessage message) {
+        // Пустой текст, пустой chat_id или слишком длинный текст отсекаются до сети, как в библиотеке
+        try {
+            message.validate();
+        } catch (TelegramApiValidationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest request = HttpRequest.newBuilder(sendMessageUri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(message.body()))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    try {
+                        return message.deserializeResponse(response.body());
+                    } catch (TelegramApiException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+}
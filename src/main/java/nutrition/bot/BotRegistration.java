@@ -0,0 +1,108 @@
+package nutrition.bot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Подключает бота к Telegram после старта приложения.
+ * <p>
+ * {@code bot.mode=polling} - long polling через {@link DefaultBotSession}.
+ * {@code bot.mode=webhook} - регистрирует вебхук на {@code bot.webhook.url + bot.webhook.path},
+ * апдейты принимает {@link nutrition.controller.WebhookController} на встроенном Tomcat.
+ */
+@Component
+@Slf4j
+public class BotRegistration {
+
+    private final Bot bot;
+    private final ObjectMapper objectMapper;
+
+    @Value("${bot.mode:polling}")
+    private String mode;
+
+    @Value("${bot.api-url:https://api.telegram.org}")
+    private String apiUrl;
+
+    @Value("${bot.webhook.url:}")
+    private String webhookUrl;
+
+    @Value("${bot.webhook.path:/telegram/webhook}")
+    private String webhookPath;
+
+    @Value("${bot.webhook.secret:}")
+    private String webhookSecret;
+
+    @Autowired
+    public BotRegistration(Bot bot, ObjectMapper objectMapper) {
+        this.bot = bot;
+        this.objectMapper = objectMapper;
+    }
+
+    // Вебхук регистрируем, только когда Tomcat уже принимает запросы
+    @EventListener(ApplicationReadyEvent.class)
+    public void register() {
+        switch (mode.toLowerCase()) {
+            case "polling" -> registerPolling();
+            case "webhook" -> registerWebhook();
+            default -> throw new IllegalStateException("Unknown bot.mode: " + mode);
+        }
+    }
+
+    private void registerPolling() {
+        try {
+            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+            botsApi.registerBot(bot);
+            log.info("Bot registered in long polling mode");
+        } catch (TelegramApiException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void registerWebhook() {
+        if (webhookUrl.isBlank() || webhookSecret.isBlank()) {
+            throw new IllegalStateException("bot.webhook.url and bot.webhook.secret are required in webhook mode");
+        }
+        String url = webhookUrl.replaceAll("/+$", "") + webhookPath;
+        Map<String, Object> request = Map.of(
+                "url", url,
+                "secret_token", webhookSecret,
+                "allowed_updates", List.of("message"));
+        try {
+            HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(apiUrl + "/bot" + bot.getBotToken() + "/setWebhook"))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(request)))
+                    .build();
+            HttpResponse<byte[]> response = HttpClient.newHttpClient()
+                    .send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+            JsonNode body = objectMapper.readTree(response.body());
+            if (!body.path("ok").asBoolean()) {
+                throw new IllegalStateException("setWebhook failed: " + body.path("description").asText());
+            }
+            log.info("Bot registered in webhook mode at {}", url);
+        } catch (IOException e) {
+            throw new IllegalStateException("setWebhook failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while setting webhook", e);
+        }
+    }
+}
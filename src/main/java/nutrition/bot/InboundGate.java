@@ -0,0 +1,141 @@
+package nutrition.bot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Входной этап перед обработкой апдейтов.
+ * <p>
+ * Отбрасывает повторы по {@code update_id} (Telegram повторяет доставку вебхука, если не дождался ответа),
+ * сообщения старше {@code bot.inbound.max-age-seconds} - и при приёме, и когда до них дошла очередь,
+ * а при заполненной полосе сбрасывает нагрузку: вызывающий отвечает коротким "занят",
+ * но не чаще раза в {@code bot.inbound.busy-reply-interval-seconds} на чат, остальные сброшенные молча.
+ * Все исходы считаются, вместе с временем ожидания в очереди они показывают насыщение заранее.
+ */
+@Component
+@Slf4j
+public class InboundGate {
+
+    public enum Outcome { QUEUED, DUPLICATE, STALE, SHED, SHED_QUIET }
+
+    // Окно последних update_id: слот по младшим битам, как в direct-mapped кэше
+    private static final int DEDUP_WINDOW = 4096;
+
+    // Последний ответ "занят": слот по хешу чата, в слоте чат и время ответа
+    private static final int BUSY_REPLY_SLOTS = 1024;
+
+    private final UpdateDispatcher dispatcher;
+    private final AtomicLongArray recentUpdates = new AtomicLongArray(DEDUP_WINDOW);
+    private final AtomicLongArray busyReplyChats = new AtomicLongArray(BUSY_REPLY_SLOTS);
+    private final AtomicLongArray busyReplyTimes = new AtomicLongArray(BUSY_REPLY_SLOTS);
+
+    @Value("${bot.inbound.max-age-seconds:60}")
+    private long maxAgeSeconds;
+
+    @Value("${bot.inbound.busy-reply-interval-seconds:30}")
+    private long busyReplyIntervalSeconds;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder busyRepliesSuppressed = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder totalQueueWaitNanos = new LongAdder();
+    private final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Long::max, 0);
+    private volatile long lastQueueWaitNanos;
+
+    @Autowired
+    public InboundGate(UpdateDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Пропускает апдейт в полосу чата.
+     *
+     * @param sentAt время отправки сообщения из Telegram, секунды Unix
+     */
+    public Outcome submit(long updateId, long chatId, long sentAt, Runnable handler) {
+        received.increment();
+        // Храним id + 1, чтобы нулевой слот не совпадал с update_id 0
+        if (recentUpdates.getAndSet((int) (updateId & (DEDUP_WINDOW - 1)), updateId + 1) == updateId + 1) {
+            duplicates.increment();
+            return Outcome.DUPLICATE;
+        }
+        if (isStale(sentAt)) {
+            stale.increment();
+            return Outcome.STALE;
+        }
+        long queuedAt = System.nanoTime();
+        boolean queued = dispatcher.tryDispatch(chatId, () -> {
+            long wait = System.nanoTime() - queuedAt;
+            dequeued.increment();
+            totalQueueWaitNanos.add(wait);
+            maxQueueWaitNanos.accumulate(wait);
+            lastQueueWaitNanos = wait;
+            if (isStale(sentAt)) {
+                stale.increment();
+                return;
+            }
+            processed.increment();
+            handler.run();
+        });
+        if (!queued) {
+            shed.increment();
+            if (!claimBusyReply(chatId)) {
+                // Флудящий чат не должен удваивать нагрузку ответами "занят"
+                busyRepliesSuppressed.increment();
+                return Outcome.SHED_QUIET;
+            }
+            log.warn("Lane for chat {} is full, shedding update {}", chatId, updateId);
+            return Outcome.SHED;
+        }
+        return Outcome.QUEUED;
+    }
+
+    /**
+     * Разрешает ответ "занят", если этому чату не отвечали в пределах интервала.
+     * Коллизия двух чатов в слоте или гонка параллельных приёмов даёт разве что лишний ответ.
+     */
+    private boolean claimBusyReply(long chatId) {
+        int slot = (int) (Long.hashCode(chatId * 0x9E3779B97F4A7C15L) & (BUSY_REPLY_SLOTS - 1));
+        long now = System.nanoTime();
+        if (busyReplyChats.get(slot) == chatId
+                && now - busyReplyTimes.get(slot) < TimeUnit.SECONDS.toNanos(busyReplyIntervalSeconds)) {
+            return false;
+        }
+        busyReplyTimes.set(slot, now);
+        busyReplyChats.set(slot, chatId);
+        return true;
+    }
+
+    private boolean isStale(long sentAt) {
+        return System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(sentAt) > TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+    }
+
+    public Map<String, Object> getStats() {
+        long done = dequeued.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("received", received.sum());
+        stats.put("processed", processed.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("stale", stale.sum());
+        stats.put("shed", shed.sum());
+        stats.put("busyRepliesSuppressed", busyRepliesSuppressed.sum());
+        stats.put("queued", dispatcher.queuedTasks());
+        stats.put("lastQueueWaitMillis", TimeUnit.NANOSECONDS.toMillis(lastQueueWaitNanos));
+        stats.put("avgQueueWaitMillis", done > 0 ? TimeUnit.NANOSECONDS.toMillis(totalQueueWaitNanos.sum() / done) : 0);
+        stats.put("maxQueueWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos.get()));
+        return stats;
+    }
+}
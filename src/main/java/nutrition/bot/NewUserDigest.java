@@ -0,0 +1,76 @@
+package nutrition.bot;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Копит новых пользователей и раз в {@code bot.new-user-digest.interval-ms} отправляет админу одну сводку.
+ * {@link #record} только кладёт id в очередь и не ждёт ничего на пути обработки сообщения,
+ * а {@link #flush} вычерпывает очередь и считает новых по вычерпанному - без отдельного счётчика,
+ * который мог бы разойтись с очередью.
+ */
+@Component
+public class NewUserDigest {
+
+    // Столько id помещается в одно сообщение с запасом до лимита Telegram в 4096 символов
+    private static final int MAX_LISTED_IDS = 200;
+
+    private final OutboundSender sender;
+    private final ConcurrentLinkedQueue<Long> pending = new ConcurrentLinkedQueue<>();
+
+    @Value("${admin.chatid}")
+    private String adminChatId;
+
+    @Value("${bot.new-user-digest.interval-ms:60000}")
+    private long intervalMs;
+
+    @Autowired
+    public NewUserDigest(OutboundSender sender) {
+        this.sender = sender;
+    }
+
+    public void record(long chatId) {
+        pending.add(chatId);
+    }
+
+    @Scheduled(fixedDelayString = "${bot.new-user-digest.interval-ms:60000}",
+            initialDelayString = "${bot.new-user-digest.interval-ms:60000}")
+    public void flush() {
+        // Id, добавленные во время вычерпывания, попадут в эту сводку или в следующую, но не пропадут
+        StringBuilder ids = new StringBuilder();
+        int count = 0;
+        int listed = 0;
+        Long chatId;
+        while ((chatId = pending.poll()) != null) {
+            count++;
+            // Лишние id не выводим, в сводку попадёт только их число
+            if (listed < MAX_LISTED_IDS) {
+                ids.append(chatId).append('\n');
+                listed++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        StringBuilder text = new StringBuilder()
+                .append("New users: ").append(count)
+                .append(" in the last ").append(TimeUnit.MILLISECONDS.toSeconds(intervalMs)).append(" s\n")
+                .append(ids);
+        if (count > listed) {
+            text.append("... and ").append(count - listed).append(" more");
+        }
+        sender.send(new SendMessage(adminChatId, text.toString()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+}
@@ -0,0 +1,330 @@
+package nutrition.bot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiValidationException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Очередь исходящих сообщений с учётом лимитов Telegram.
+ * <p>
+ * {@link #send} только ставит сообщение в очередь чата и сразу возвращается. Поток отправки берёт чаты,
+ * у которых есть токен в собственной корзине (около 1 сообщения в секунду) и в общей (около 30 в секунду),
+ * и отправляет через {@code executeAsync}. У чата одновременно в полёте не больше одного сообщения,
+ * поэтому порядок внутри чата сохраняется. На 429 чат ждёт {@code retry_after}, временные ошибки
+ * повторяются с экспоненциальной паузой ограниченное число раз.
+ * <p>
+ * По ответу 429 не понять, сработал лимит чата или общий лимит бота, а при общем остальные чаты
+ * продолжали бы упираться в тот же лимит. Собственные корзины чатов держат их ниже лимита Telegram,
+ * так что 429 почти всегда означает общий лимит, и на {@code retry_after} приостанавливается вся отправка.
+ */
+@Component
+@Slf4j
+public class OutboundSender {
+
+    @FunctionalInterface
+    public interface Transport {
+        CompletableFuture<?> send(SendMessage message) throws TelegramApiException;
+    }
+
+    @Value("${bot.sender.global-rate:30}")
+    private double globalRate;
+
+    @Value("${bot.sender.chat-rate:1}")
+    private double chatRate;
+
+    @Value("${bot.sender.chat-burst:3}")
+    private int chatBurst;
+
+    @Value("${bot.sender.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${bot.sender.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${bot.sender.shutdown-timeout-seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    private static final long BASE_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Map<String, ChatQueue> chats = new ConcurrentHashMap<>();
+    private final DelayQueue<ChatQueue> ready = new DelayQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder globalPauses = new LongAdder();
+    // До этого момента (System.nanoTime) не отправляется ничего; пишется из колбэков, читается потоком отправки
+    private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime());
+
+    private volatile Transport transport;
+    private volatile boolean running = true;
+    private TokenBucket globalBucket;
+    private Thread worker;
+
+    @PostConstruct
+    public void start() {
+        globalBucket = new TokenBucket(globalRate, (int) Math.max(1, globalRate));
+        worker = new Thread(this::run, "outbound-sender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Ставит сообщение в очередь. Никогда не блокирует.
+     *
+     * @return false, если очередь переполнена или отправка остановлена и сообщение отброшено
+     */
+    public boolean send(SendMessage message) {
+        if (!running) {
+            dropped.increment();
+            log.warn("Outbound sender is stopped, dropping message to chat {}", message.getChatId());
+            return false;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            log.warn("Outbound queue is full, dropping message to chat {}", message.getChatId());
+            return false;
+        }
+        chats.compute(message.getChatId(), (chatId, chat) -> {
+            ChatQueue target = chat != null ? chat : new ChatQueue(chatId);
+            synchronized (target) {
+                target.messages.addLast(new Outgoing(message));
+                if (!target.scheduled && !target.inFlight) {
+                    schedule(target, System.nanoTime());
+                }
+            }
+            return target;
+        });
+        return true;
+    }
+
+    public int queuedMessages() {
+        return queued.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", queued.get());
+        stats.put("chats", chats.size());
+        stats.put("sent", sent.sum());
+        stats.put("retried", retried.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("globalPauses", globalPauses.sum());
+        return stats;
+    }
+
+    // Вызывается под блокировкой чата
+    private void schedule(ChatQueue chat, long notBefore) {
+        chat.readyAt = Math.max(notBefore, System.nanoTime() + chat.bucket.delay(System.nanoTime()));
+        chat.scheduled = true;
+        ready.offer(chat);
+    }
+
+    private void run() {
+        long nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+        while (running || queued.get() > 0) {
+            ChatQueue chat;
+            try {
+                chat = ready.poll(100, TimeUnit.MILLISECONDS);
+                if (chat != null) {
+                    long now = System.nanoTime();
+                    long wait = Math.max(globalBucket.delay(now), pausedUntil.get() - now);
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chat != null) {
+                sendNext(chat);
+            }
+            if (System.nanoTime() >= nextSweep) {
+                sweep();
+                nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+            }
+        }
+    }
+
+    private void sendNext(ChatQueue chat) {
+        Outgoing outgoing;
+        long now = System.nanoTime();
+        synchronized (chat) {
+            chat.scheduled = false;
+            outgoing = chat.messages.pollFirst();
+            if (outgoing == null) {
+                return;
+            }
+            chat.inFlight = true;
+            chat.bucket.consume(now);
+        }
+        globalBucket.consume(now);
+
+        CompletableFuture<?> result;
+        try {
+            Transport current = transport;
+            if (current == null) {
+                throw new TelegramApiException("Transport is not attached");
+            }
+            result = current.send(outgoing.message);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((response, error) -> complete(chat, outgoing, error));
+    }
+
+    private void complete(ChatQueue chat, Outgoing outgoing, Throwable error) {
+        long notBefore = 0;
+        if (error == null) {
+            sent.increment();
+            queued.decrementAndGet();
+        } else {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            long retryAfter = retryDelay(cause, outgoing.attempt);
+            if (isFloodLimit(cause) && retryAfter > 0) {
+                pauseAll(System.nanoTime() + retryAfter);
+            }
+            if (retryAfter >= 0 && outgoing.attempt < maxAttempts) {
+                outgoing.attempt++;
+                retried.increment();
+                notBefore = System.nanoTime() + retryAfter;
+                log.warn("Send to chat {} failed (attempt {}), retrying in {} ms: {}", chat.chatId, outgoing.attempt,
+                        TimeUnit.NANOSECONDS.toMillis(retryAfter), cause.getMessage());
+                synchronized (chat) {
+                    chat.messages.addFirst(outgoing);
+                }
+            } else {
+                dropped.increment();
+                queued.decrementAndGet();
+                log.error("Dropping message to chat {} after {} attempts", chat.chatId, outgoing.attempt, cause);
+            }
+        }
+        synchronized (chat) {
+            chat.inFlight = false;
+            if (!chat.messages.isEmpty()) {
+                schedule(chat, notBefore);
+            }
+        }
+    }
+
+    private void pauseAll(long until) {
+        long previous = pausedUntil.getAndAccumulate(until, Math::max);
+        if (until - previous > 0) {
+            globalPauses.increment();
+            log.warn("Telegram flood limit hit, pausing all sends for {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(until - System.nanoTime()));
+        }
+    }
+
+    private static boolean isFloodLimit(Throwable error) {
+        return error instanceof TelegramApiRequestException request
+                && request.getErrorCode() != null && request.getErrorCode() == 429;
+    }
+
+    /**
+     * Пауза перед повтором или -1, если ошибка постоянная (например, бот заблокирован пользователем).
+     */
+    private static long retryDelay(Throwable error, int attempt) {
+        if (error instanceof TelegramApiValidationException) {
+            // Сообщение не прошло проверку до отправки, повтор ничего не изменит
+            return -1;
+        }
+        long backoff = BASE_BACKOFF_NANOS << Math.min(attempt - 1, 6);
+        if (error instanceof TelegramApiRequestException request && request.getErrorCode() != null) {
+            int code = request.getErrorCode();
+            if (code == 429) {
+                Integer retryAfter = request.getParameters() != null ? request.getParameters().getRetryAfter() : null;
+                return retryAfter != null ? TimeUnit.SECONDS.toNanos(retryAfter) : backoff;
+            }
+            return code >= 500 ? backoff : -1;
+        }
+        // Сетевые ошибки без ответа API
+        return backoff;
+    }
+
+    // Забываем чаты без сообщений, у которых корзина уже восстановилась
+    private void sweep() {
+        long now = System.nanoTime();
+        // Через compute, чтобы не разойтись с параллельным send для того же чата
+        for (String chatId : chats.keySet()) {
+            chats.computeIfPresent(chatId, (id, chat) -> {
+                synchronized (chat) {
+                    boolean idle = chat.messages.isEmpty() && !chat.scheduled && !chat.inFlight && chat.bucket.isFull(now);
+                    return idle ? null : chat;
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (queued.get() > 0) {
+            log.warn("Outbound sender stopped with {} unsent messages", queued.get());
+        }
+        worker.interrupt();
+    }
+
+    private static class Outgoing {
+        final SendMessage message;
+        int attempt = 1;
+
+        Outgoing(SendMessage message) {
+            this.message = message;
+        }
+    }
+
+    private class ChatQueue implements Delayed {
+        final String chatId;
+        final Deque<Outgoing> messages = new ArrayDeque<>();
+        final TokenBucket bucket = new TokenBucket(chatRate, chatBurst);
+        long readyAt;
+        boolean scheduled;
+        boolean inFlight;
+
+        ChatQueue(String chatId) {
+            this.chatId = chatId;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAt, ((ChatQueue) other).readyAt);
+        }
+    }
+}
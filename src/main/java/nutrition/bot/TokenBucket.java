@@ -0,0 +1,31 @@
+package nutrition.bot;
+
+/**
+ * Token bucket в форме GCRA: хранит только теоретическое время следующей отправки.
+ * Допускает всплеск до {@code burst} сообщений, дальше - не чаще {@code ratePerSecond}. Не потокобезопасен.
+ */
+class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private long theoreticalArrival;
+
+    TokenBucket(double ratePerSecond, int burst) {
+        this.interval = (long) (1_000_000_000L / ratePerSecond);
+        this.tolerance = interval * (Math.max(1, burst) - 1);
+    }
+
+    // Сколько наносекунд ждать до следующего токена, 0 - можно отправлять сейчас
+    long delay(long now) {
+        return Math.max(0, theoreticalArrival - tolerance - now);
+    }
+
+    void consume(long now) {
+        theoreticalArrival = Math.max(theoreticalArrival, now) + interval;
+    }
+
+    // Корзина полностью восстановилась и её можно забыть
+    boolean isFull(long now) {
+        return theoreticalArrival <= now;
+    }
+}
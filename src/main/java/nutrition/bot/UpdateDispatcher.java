@@ -0,0 +1,116 @@
+package nutrition.bot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Раскладывает обработку апдейтов по полосам по хешу chatId.
+ * <p>
+ * Каждая полоса - один поток со своей ограниченной очередью, поэтому сообщения одного чата
+ * обрабатываются строго по порядку, а разные чаты - параллельно. Пока один чат ждёт ответа
+ * Telegram API, остальные полосы продолжают работу. Если очередь полосы заполнена,
+ * {@link #tryDispatch} не ждёт, а отказывает, и решение о сбросе нагрузки принимает {@link InboundGate}.
+ */
+@Component
+@Slf4j
+public class UpdateDispatcher {
+
+    @Value("${bot.dispatcher.lanes:16}")
+    private int laneCount;
+
+    @Value("${bot.dispatcher.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${bot.dispatcher.shutdown-timeout-seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    private Lane[] lanes;
+
+    @PostConstruct
+    public void start() {
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, queueCapacity);
+            lanes[i].start();
+        }
+        log.info("Update dispatcher started with {} lanes, queue capacity {}", laneCount, queueCapacity);
+    }
+
+    // false, если очередь полосы чата заполнена
+    public boolean tryDispatch(long chatId, Runnable task) {
+        return laneFor(chatId).queue.offer(task);
+    }
+
+    // Суммарная глубина очередей для метрик
+    public int queuedTasks() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    private Lane laneFor(long chatId) {
+        return lanes[Math.floorMod(Long.hashCode(chatId), lanes.length)];
+    }
+
+    // Даём полосам дообработать очередь, чтобы не потерять уже принятые апдейты
+    @PreDestroy
+    public void stop() {
+        for (Lane lane : lanes) {
+            lane.running = false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        for (Lane lane : lanes) {
+            try {
+                lane.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (lane.isAlive()) {
+                log.warn("Lane {} did not finish in time, {} updates dropped", lane.getName(), lane.queue.size());
+                lane.interrupt();
+            }
+        }
+    }
+
+    private static class Lane extends Thread {
+
+        final BlockingQueue<Runnable> queue;
+        volatile boolean running = true;
+
+        Lane(int index, int capacity) {
+            super("update-lane-" + index);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Update handling failed in {}", getName(), e);
+                }
+            }
+        }
+    }
+}
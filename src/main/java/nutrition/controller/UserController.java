@@ -1,15 +1,28 @@
 package nutrition.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nutrition.bot.InboundGate;
+import nutrition.bot.OutboundSender;
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.Sex;
 import nutrition.model.user.User;
+import nutrition.model.user.UserQuery;
+import nutrition.service.NutritionStatsService;
 import nutrition.service.UserService;
+import nutrition.storage.JsonSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -20,12 +33,80 @@ public class UserController {
     private static final Logger log = LoggerFactory.getLogger(UserController.class);
 
     private final UserService userService;
+    private final JsonSnapshot jsonSnapshot;
+    private final InboundGate inboundGate;
+    private final OutboundSender outboundSender;
+    private final NutritionStatsService nutritionStatsService;
     
+    // Без параметров отдаёт всех пользователей; page и size включают постраничную выдачу
     @GetMapping("/users")
-    public List<User> getAllUsers(@RequestHeader("Authorization") String authHeader) {
+    public List<User> getAllUsers(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestParam(required = false) Sex sex,
+            @RequestParam(required = false) ActivityLevel activity,
+            @RequestParam(required = false) Integer minAge,
+            @RequestParam(required = false) Integer maxAge,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) Integer size) {
+        checkAuth(authHeader);
+
+        if (page < 0 || (size != null && size <= 0)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid page or size");
+        }
+        int limit = size != null ? size : Integer.MAX_VALUE;
+        int offset = size != null ? (int) Math.min((long) page * size, Integer.MAX_VALUE) : 0;
+        return userService.findUsers(new UserQuery(sex, activity, minAge, maxAge, offset, limit));
+    }
+
+    @GetMapping("/users/count")
+    public long countUsers(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestParam(required = false) Sex sex,
+            @RequestParam(required = false) ActivityLevel activity,
+            @RequestParam(required = false) Integer minAge,
+            @RequestParam(required = false) Integer maxAge) {
+        checkAuth(authHeader);
+
+        return userService.countUsers(new UserQuery(sex, activity, minAge, maxAge, 0, Integer.MAX_VALUE));
+    }
+
+    // Выгрузка в формате JSON-снапшота, независимо от storage.type
+    @GetMapping("/users/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestHeader("Authorization") String authHeader) {
+        checkAuth(authHeader);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=bot-users.json")
+                .body(out -> jsonSnapshot.write(out, userService::forEachEntry));
+    }
+
+    @GetMapping("/storage/stats")
+    public Map<String, Object> getStorageStats(@RequestHeader("Authorization") String authHeader) {
         checkAuth(authHeader);
-        
-        return userService.getAllUsers();
+
+        return userService.getStats();
+    }
+
+    // Насыщение входящей и исходящей очередей
+    @GetMapping("/bot/stats")
+    public Map<String, Object> getBotStats(@RequestHeader("Authorization") String authHeader) {
+        checkAuth(authHeader);
+
+        return Map.of("inbound", inboundGate.getStats(), "outbound", outboundSender.getStats());
+    }
+
+    // Распределение суточных норм по всем пользователям с заполненным профилем
+    @GetMapping("/nutrition/stats")
+    public Map<String, Object> getNutritionStats(
+            @RequestHeader("Authorization") String authHeader,
+            @RequestParam(defaultValue = "20") int buckets) {
+        checkAuth(authHeader);
+
+        if (buckets <= 0 || buckets > 1000) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid buckets");
+        }
+        return nutritionStatsService.getStats(buckets);
     }
 
     @PostMapping("/users")
@@ -47,7 +128,7 @@ public class UserController {
             }
         }
         return String.format("Added %d users. Total: %d",
-                added, userService.getAllUsers().size());
+                added, userService.countUsers(UserQuery.all()));
     }
 
     // 3. Удалить пользователей
@@ -76,8 +157,14 @@ public class UserController {
     }
 
     @Autowired
-    public UserController(UserService userService) {
+    public UserController(UserService userService, ObjectMapper objectMapper,
+                          InboundGate inboundGate, OutboundSender outboundSender,
+                          NutritionStatsService nutritionStatsService) {
         this.userService = userService;
+        this.jsonSnapshot = new JsonSnapshot(objectMapper);
+        this.inboundGate = inboundGate;
+        this.outboundSender = outboundSender;
+        this.nutritionStatsService = nutritionStatsService;
         log.info("Controller created");
         this.ADMIN_USERNAME = System.getenv()
                 .getOrDefault("ADMIN_USERNAME", "admin");
@@ -0,0 +1,49 @@
+package nutrition.controller;
+
+import nutrition.bot.Bot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// Приём апдейтов от Telegram в режиме bot.mode=webhook
+@RestController
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+public class WebhookController {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookController.class);
+
+    private final Bot bot;
+    private final byte[] secret;
+
+    @Autowired
+    public WebhookController(Bot bot, @Value("${bot.webhook.secret:}") String secret) {
+        this.bot = bot;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Отвечаем сразу: апдейт только ставится в очередь полосы чата
+    @PostMapping("${bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdate(
+            @RequestHeader(value = "X-Telegram-Bot-Api-Secret-Token", required = false) String token,
+            @RequestBody Update update) {
+        if (secret.length == 0 || token == null
+                || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+            log.warn("Rejected webhook call with invalid secret token");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        bot.onUpdateReceived(update);
+        return ResponseEntity.ok().build();
+    }
+}
@@ -0,0 +1,47 @@
+package nutrition.model.message;
+
+/**
+ * Что означает текст входящего сообщения: нажатая кнопка клавиатуры или произвольный ввод.
+ * Текст кнопки берётся из каталога сообщений по {@link #button()} для каждой локали.
+ */
+public enum InputAction {
+
+    // Не кнопка: число, опечатка и т.п.
+    TEXT(null),
+
+    START(MessageKey.START),
+    ENTER_PARAMS(MessageKey.MENU_ENTER_PARAMS),
+    CALCULATIONS(MessageKey.MENU_CALCULATIONS),
+
+    SKIP(MessageKey.NAVIGATION_SKIP),
+    BACK(MessageKey.NAVIGATION_BACK),
+
+    SEX_MALE(MessageKey.PARAM_SEX_MALE),
+    SEX_FEMALE(MessageKey.PARAM_SEX_FEMALE),
+
+    ACTIVITY_SEDENTARY(MessageKey.PARAM_ACTIVITY_SEDENTARY),
+    ACTIVITY_LIGHT(MessageKey.PARAM_ACTIVITY_LIGHT),
+    ACTIVITY_MODERATE(MessageKey.PARAM_ACTIVITY_MODERATE),
+    ACTIVITY_ACTIVE(MessageKey.PARAM_ACTIVITY_ACTIVE),
+    ACTIVITY_VERY_ACTIVE(MessageKey.PARAM_ACTIVITY_VERY_ACTIVE),
+
+    CALCULATE_WATER(MessageKey.CALCULATION_WATER),
+    CALCULATE_CALORIES(MessageKey.CALCULATION_CALORIES),
+    CALCULATE_MACROS(MessageKey.CALCULATION_MACROS),
+    CALCULATE_SODIUM(MessageKey.CALCULATION_SODIUM),
+    CALCULATE_IRON(MessageKey.CALCULATION_IRON),
+
+    INFO_WATER(MessageKey.INFO_BUTTON_WATER),
+    INFO_CALORIES(MessageKey.INFO_BUTTON_CALORIES),
+    INFO_MACROS(MessageKey.INFO_BUTTON_MACROS);
+
+    private final MessageKey button;
+
+    InputAction(MessageKey button) {
+        this.button = button;
+    }
+
+    public MessageKey button() {
+        return button;
+    }
+}
@@ -0,0 +1,89 @@
+package nutrition.model.message;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Заранее сериализованное тело запроса с местами под chat_id и, если нужно, под текст.
+ * <p>
+ * Шаблон получают сериализацией запроса с маркерами вместо значений и разрезают по ним.
+ * При отправке байты частей склеиваются с chat_id и экранированным текстом, без повторной сериализации.
+ */
+public final class JsonTemplate {
+
+    private final byte[][] parts;
+    // Что стоит после parts[i]: true - chat_id, false - текст
+    private final boolean[] chatHoles;
+
+    private JsonTemplate(byte[][] parts, boolean[] chatHoles) {
+        this.parts = parts;
+        this.chatHoles = chatHoles;
+    }
+
+    /**
+     * @param json       сериализованный запрос
+     * @param chatMarker значение, подставленное вместо chat_id
+     * @param textMarker значение, подставленное вместо текста, или null, если текст входит в шаблон
+     */
+    public static JsonTemplate of(String json, String chatMarker, String textMarker) {
+        int chat = singleIndex(json, chatMarker);
+        if (textMarker == null) {
+            return new JsonTemplate(new byte[][]{
+                    bytes(json, 0, chat),
+                    bytes(json, chat + chatMarker.length(), json.length())
+            }, new boolean[]{true});
+        }
+        int text = singleIndex(json, textMarker);
+        boolean chatFirst = chat < text;
+        int first = Math.min(chat, text);
+        int firstEnd = first + (chatFirst ? chatMarker : textMarker).length();
+        int second = Math.max(chat, text);
+        int secondEnd = second + (chatFirst ? textMarker : chatMarker).length();
+        return new JsonTemplate(new byte[][]{
+                bytes(json, 0, first),
+                bytes(json, firstEnd, second),
+                bytes(json, secondEnd, json.length())
+        }, new boolean[]{chatFirst, !chatFirst});
+    }
+
+    public boolean hasText() {
+        return chatHoles.length > 1;
+    }
+
+    /**
+     * Собирает тело запроса. chatId вставляется как есть, текст экранируется по правилам JSON.
+     */
+    public byte[] render(String chatId, String text) {
+        byte[] chat = chatId.getBytes(StandardCharsets.US_ASCII);
+        byte[] escaped = hasText() ? JsonStringEncoder.getInstance().quoteAsUTF8(text) : null;
+        int length = chat.length + (escaped != null ? escaped.length : 0);
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] body = new byte[length];
+        int position = 0;
+        for (int i = 0; i < parts.length; i++) {
+            System.arraycopy(parts[i], 0, body, position, parts[i].length);
+            position += parts[i].length;
+            if (i < chatHoles.length) {
+                byte[] value = chatHoles[i] ? chat : escaped;
+                System.arraycopy(value, 0, body, position, value.length);
+                position += value.length;
+            }
+        }
+        return body;
+    }
+
+    private static int singleIndex(String json, String marker) {
+        int index = json.indexOf(marker);
+        if (index < 0 || json.indexOf(marker, index + 1) >= 0) {
+            throw new IllegalArgumentException("Template must contain exactly one " + marker);
+        }
+        return index;
+    }
+
+    private static byte[] bytes(String json, int from, int to) {
+        return json.substring(from, to).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -2,6 +2,17 @@ package nutrition.model.message;
 
 public enum KeyboardType {
     START,
+    SEX,
+    // Пропустить, назад, в главное меню
+    NAVIGATION,
+    WEIGHT,
+    HEIGHT,
+    ACTIVITY,
     OPTIONS,
-    BACK
+    EDIT_PARAMS,
+    BACK,
+    // Назад с кнопкой справки к результату расчёта
+    BACK_WATER_INFO,
+    BACK_CALORIES_INFO,
+    BACK_MACROS_INFO
 }
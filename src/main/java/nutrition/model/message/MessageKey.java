@@ -0,0 +1,118 @@
+package nutrition.model.message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ключи сообщений из {@code locales/messages_*.properties}.
+ * Порядковый номер ключа - индекс строки в скомпилированном каталоге локали.
+ */
+public enum MessageKey {
+
+    START("start"),
+    WELCOME("welcome"),
+
+    MENU_ENTER_PARAMS("menu.enter_params"),
+    MENU_CALCULATIONS("menu.calculations"),
+    MENU_EDIT_PARAMS("menu.edit_params"),
+    MENU_EDIT_PARAMS_TITLE("menu.edit_params.title"),
+
+    NAVIGATION_SKIP("navigation.skip"),
+    NAVIGATION_BACK("navigation.back"),
+    NAVIGATION_NEXT("navigation.next"),
+    NAVIGATION_BACK_TO_MENU("navigation.back_to_menu"),
+
+    PARAM_SEX_TITLE("param.sex.title"),
+    PARAM_AGE_TITLE("param.age.title"),
+    PARAM_WEIGHT_TITLE("param.weight.title"),
+    PARAM_HEIGHT_TITLE("param.height.title"),
+    PARAM_ACTIVITY_TITLE("param.activity.title"),
+    PARAM_ACTIVITY_SEDENTARY("param.activity.sedentary"),
+    PARAM_ACTIVITY_LIGHT("param.activity.light"),
+    PARAM_ACTIVITY_MODERATE("param.activity.moderate"),
+    PARAM_ACTIVITY_ACTIVE("param.activity.active"),
+    PARAM_ACTIVITY_VERY_ACTIVE("param.activity.very_active"),
+    PARAM_SEX_MALE("param.sex.male"),
+    PARAM_SEX_FEMALE("param.sex.female"),
+    PARAM_SEX_QUESTION("param.sex.question"),
+    PARAM_AGE_QUESTION("param.age.question"),
+    PARAM_WEIGHT_QUESTION("param.weight.question"),
+    PARAM_HEIGHT_QUESTION("param.height.question"),
+    PARAM_ACTIVITY_QUESTION("param.activity.question"),
+
+    METRIC_LITERS("metric.liters"),
+    METRIC_KCAL("metric.kcal"),
+    METRIC_GRAMS("metric.grams"),
+    METRIC_KG("metric.kg"),
+    METRIC_SM("metric.sm"),
+
+    SUMMARY_TITLE("summary.title"),
+
+    CALCULATION_MENU_TITLE("calculation.menu.title"),
+    CALCULATION_RESULT_RECOMMENDATION("calculation.result.recommendation"),
+    CALCULATION_RESULT_DAILY_NEEDS("calculation.result.daily_needs"),
+    CALCULATION_WATER("calculation.water"),
+    CALCULATION_CALORIES("calculation.calories"),
+    CALCULATION_MACROS("calculation.macros"),
+    CALCULATION_SODIUM("calculation.sodium"),
+    CALCULATION_IRON("calculation.iron"),
+    CALCULATION_WATER_RESULT("calculation.water.result"),
+    CALCULATION_CALORIES_RESULT("calculation.calories.result"),
+    CALCULATION_MACROS_RESULT("calculation.macros.result"),
+
+    MACROS_PROTEIN("macros.protein"),
+    MACROS_FAT("macros.fat"),
+    MACROS_CARBS("macros.carbs"),
+
+    INFO_BUTTON_WATER("info.button.water"),
+    INFO_BUTTON_CALORIES("info.button.calories"),
+    INFO_BUTTON_MACROS("info.button.macros"),
+    INFO_WATER("info.water"),
+    INFO_CALORIES("info.calories"),
+    INFO_MACROS("info.macros"),
+    INFO_SODIUM("info.sodium"),
+    INFO_IRON_PERSONAL_RECOMMENDATION("info.iron.personal-recommendation"),
+    INFO_IRON("info.iron"),
+
+    ERROR_USER_NOT_FOUND("error.user_not_found"),
+    ERROR_INVALID_OPTION("error.invalid_option"),
+    ERROR_CALCULATION_NOT_IMPLEMENTED("error.calculation_not_implemented"),
+    ERROR_CALCULATION_FAILED("error.calculation_failed"),
+    ERROR_UNKNOWN_COMMAND("error.unknown_command"),
+    ERROR_INVALID_SEX("error.invalid_sex"),
+    ERROR_INVALID_NUMBER("error.invalid_number"),
+    ERROR_INVALID_AGE_RANGE_YOUNG("error.invalid_age_range.young"),
+    ERROR_INVALID_AGE_RANGE_OLD("error.invalid_age_range.old"),
+    ERROR_INVALID_WEIGHT_RANGE_LOW("error.invalid_weight_range.low"),
+    ERROR_INVALID_WEIGHT_RANGE_HIGH("error.invalid_weight_range.high"),
+    ERROR_INVALID_HEIGHT_RANGE("error.invalid_height_range"),
+    ERROR_INVALID_ACTIVITY("error.invalid_activity"),
+    ERROR_BUSY("error.busy"),
+
+    UNKNOWN_COMMAND("unknown.command");
+
+    private static final Map<String, MessageKey> BY_KEY = new HashMap<>();
+
+    static {
+        for (MessageKey messageKey : values()) {
+            BY_KEY.put(messageKey.key, messageKey);
+        }
+    }
+
+    private final String key;
+
+    MessageKey(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @return ключ по имени из файла сообщений или null, если такого нет
+     */
+    public static MessageKey byKey(String key) {
+        return BY_KEY.get(key);
+    }
+}
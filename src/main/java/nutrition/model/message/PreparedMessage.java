@@ -0,0 +1,39 @@
+package nutrition.model.message;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiValidationException;
+
+/**
+ * Ответ, тело которого собирается из {@link JsonTemplate}, а не сериализуется заново.
+ * Поля SendMessage тоже заполнены, так что его можно отправить и обычным путём.
+ * После создания сообщение не изменяют: шаблон о таких изменениях не узнает.
+ */
+public class PreparedMessage extends SendMessage {
+
+    // Лимит Telegram на длину текста сообщения
+    private static final int MAX_TEXT_LENGTH = 4096;
+
+    private final transient JsonTemplate template;
+
+    public PreparedMessage(String chatId, String text, JsonTemplate template) {
+        super(chatId, text);
+        this.template = template;
+    }
+
+    /**
+     * Проверки библиотеки плюс длина текста. Готовые байты уходят мимо {@code executeAsync},
+     * поэтому проверку вызывает отправитель, а не библиотека.
+     */
+    @Override
+    public void validate() throws TelegramApiValidationException {
+        super.validate();
+        if (getText().length() > MAX_TEXT_LENGTH) {
+            throw new TelegramApiValidationException("Text is longer than " + MAX_TEXT_LENGTH + " characters", this);
+        }
+    }
+
+    // Не геттер, чтобы Jackson не сериализовал шаблон при отправке обычным путём
+    public byte[] body() {
+        return template.render(getChatId(), getText());
+    }
+}
@@ -0,0 +1,88 @@
+package nutrition.model.message;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Построитель текста ответа с одним StringBuilder на поток и записью чисел с фиксированной точностью
+ * без {@link java.util.Formatter}. Текст собирается из заранее разрезанных кусков шаблона и значений между ними,
+ * так что на ответ остаётся одна итоговая строка.
+ * <p>
+ * Не реентерабелен: между {@link #start()} и {@link #build()} в том же потоке нельзя начинать другой текст.
+ */
+public final class ReplyText {
+
+    private static final ThreadLocal<ReplyText> LOCAL = ThreadLocal.withInitial(ReplyText::new);
+    private static final int INITIAL_CAPACITY = 512;
+    // Случайно раздутый буфер не держим в потоке навсегда
+    private static final int MAX_RETAINED_CAPACITY = 8192;
+    private static final long[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    // Больше этого value * 10^decimals может не уместиться в long без потери точности
+    private static final double MAX_FAST = 1e15;
+
+    private StringBuilder text = new StringBuilder(INITIAL_CAPACITY);
+
+    private ReplyText() {
+    }
+
+    public static ReplyText start() {
+        ReplyText reply = LOCAL.get();
+        reply.text.setLength(0);
+        return reply;
+    }
+
+    public ReplyText append(String part) {
+        text.append(part);
+        return this;
+    }
+
+    public ReplyText append(long value) {
+        text.append(value);
+        return this;
+    }
+
+    /**
+     * Записывает число с {@code decimals} знаками после точки, округляя половину вверх, как {@code %.Nf},
+     * но всегда с точкой, независимо от локали JVM.
+     */
+    public ReplyText appendFixed(double value, int decimals) {
+        long scale = POW10[decimals];
+        double scaled = Math.abs(value) * scale;
+        // Formatter округляет кратчайшую десятичную запись числа, а умножение на 10^N может увести
+        // половину вроде 73.115 чуть ниже .5, поэтому такие случаи считаются через BigDecimal
+        if (!Double.isFinite(value) || scaled >= MAX_FAST || isNearHalf(scaled)) {
+            text.append(Double.isFinite(value)
+                    ? BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString()
+                    : String.valueOf(value));
+            return this;
+        }
+        long units = Math.round(scaled);
+        // Знак берём из бита знака, как Formatter: -0.001 с двумя знаками даёт "-0.00"
+        if (Double.doubleToRawLongBits(value) < 0) {
+            text.append('-');
+        }
+        text.append(units / scale);
+        if (decimals > 0) {
+            text.append('.');
+            long fraction = units % scale;
+            for (long digit = scale / 10; digit > fraction && digit > 1; digit /= 10) {
+                text.append('0');
+            }
+            text.append(fraction);
+        }
+        return this;
+    }
+
+    private static boolean isNearHalf(double scaled) {
+        double fraction = scaled - Math.floor(scaled);
+        return Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled);
+    }
+
+    public String build() {
+        String result = text.toString();
+        if (text.capacity() > MAX_RETAINED_CAPACITY) {
+            text = new StringBuilder(INITIAL_CAPACITY);
+        }
+        return result;
+    }
+}
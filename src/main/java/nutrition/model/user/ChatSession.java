@@ -0,0 +1,25 @@
+package nutrition.model.user;
+
+/**
+ * Всё, что хранится о чате: профиль и состояние регистрации. Читается и меняется только целиком.
+ * Любое из полей может быть null, если соответствующих данных нет.
+ */
+public record ChatSession(long chatId, User user, RegistrationState state) {
+
+    public static ChatSession empty(long chatId) {
+        return new ChatSession(chatId, null, null);
+    }
+
+    public ChatSession withUser(User user) {
+        return new ChatSession(chatId, user, state);
+    }
+
+    public ChatSession withState(RegistrationState state) {
+        return new ChatSession(chatId, user, state);
+    }
+
+    // Профиль для изменения: новый пустой, если его ещё нет
+    public User userOrNew() {
+        return user != null ? user : new User(chatId);
+    }
+}
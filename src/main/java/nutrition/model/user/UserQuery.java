@@ -0,0 +1,19 @@
+package nutrition.model.user;
+
+/**
+ * Фильтр и страница для выборки пользователей в админке. Пустые поля фильтра не ограничивают выборку.
+ */
+public record UserQuery(Sex sex, ActivityLevel activityLevel, Integer minAge, Integer maxAge,
+                        int offset, int limit) {
+
+    public static UserQuery all() {
+        return new UserQuery(null, null, null, null, 0, Integer.MAX_VALUE);
+    }
+
+    public boolean matches(User user) {
+        return (sex == null || sex == user.sex())
+                && (activityLevel == null || activityLevel == user.activityLevel())
+                && (minAge == null || user.age() >= minAge)
+                && (maxAge == null || user.age() <= maxAge);
+    }
+}
@@ -0,0 +1,77 @@
+package nutrition.service;
+
+import nutrition.model.CalculationOption;
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченный LRU-кэш текстов расчётов, поделённый на сегменты с отдельными блокировками.
+ * <p>
+ * Результат зависит только от параметров профиля, опции и локали, поэтому ключ не содержит chatId
+ * и одна запись обслуживает всех пользователей с одинаковыми параметрами. Сбрасывать кэш не нужно:
+ * изменённый профиль даёт другой ключ, а старая запись со временем вытесняется.
+ */
+class CalculationResultCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    record Key(int age, int height, int weight, Sex sex, ActivityLevel activity, CalculationOption option,
+               Locale locale) {
+
+        static Key of(User user, CalculationOption option, Locale locale) {
+            return new Key(user.age(), user.height(), user.weight(), user.sex(), user.activityLevel(), option, locale);
+        }
+    }
+
+    CalculationResultCache(int capacity) {
+        int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Возвращает закэшированный текст или вычисляет его вне блокировки. Если вычисление бросило исключение,
+     * ничего не кэшируется.
+     */
+    String get(Key key, Supplier<String> compute) {
+        Segment segment = segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+        synchronized (segment) {
+            String text = segment.get(key);
+            if (text != null) {
+                return text;
+            }
+        }
+        // Параллельный промах по тому же ключу посчитает тот же текст, это дешевле блокировки на время расчёта
+        String text = compute.get();
+        synchronized (segment) {
+            segment.put(key, text);
+        }
+        return text;
+    }
+
+    private static class Segment extends LinkedHashMap<Key, String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            return size() > capacity;
+        }
+    }
+}
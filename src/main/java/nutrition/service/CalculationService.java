@@ -1,76 +1,127 @@
 package nutrition.service;
 
+import jakarta.annotation.PostConstruct;
 import nutrition.model.CalculationOption;
-import nutrition.model.user.ActivityLevel;
+import nutrition.model.message.InputAction;
+import nutrition.model.message.KeyboardType;
+import nutrition.model.message.MessageKey;
+import nutrition.model.message.ReplyText;
 import nutrition.model.user.Sex;
 import nutrition.model.user.User;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.meta.api.methods.ParseMode;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.Supplier;
 
 @Component
 public class CalculationService {
 
+    // Ключи сообщений опций разрешаются один раз, а не собираются из строк на каждое сообщение
+    private static final Map<CalculationOption, MessageKey> INFO_TEXTS = optionKeys("info.");
+    // Место числа в тексте результата
+    private static final String SLOT = "\u0000";
+
     private final MessageService messageService;
-    private final UserService userService;
+    private final ReplyTemplates replies;
+    private final CalculationResultCache results;
+    private final Map<Locale, ResultTexts> resultTexts = new HashMap<>();
+
+    /**
+     * Тексты результатов, заранее разрезанные на куски между числами: число вставляется между
+     * соседними элементами массива.
+     */
+    private record ResultTexts(String[] water, String[] calories, String[] macros, String[] ironPersonal,
+                               String iron) {
+    }
 
     @Autowired
-    public CalculationService(MessageService messageService, UserService userService) {
+    public CalculationService(MessageService messageService, ReplyTemplates replies,
+                              @Value("${calculation.cache.size:10000}") int cacheSize) {
         this.messageService = messageService;
-        this.userService = userService;
+        this.replies = replies;
+        this.results = new CalculationResultCache(cacheSize);
+    }
+
+    @PostConstruct
+    public void compileTexts() {
+        for (Locale locale : messageService.getLocales()) {
+            String grams = "* " + messageService.get(MessageKey.METRIC_GRAMS, locale);
+            resultTexts.put(locale, new ResultTexts(
+                    new String[]{
+                            messageService.get(MessageKey.CALCULATION_WATER_RESULT, locale) + "\n\n"
+                                    + messageService.get(MessageKey.CALCULATION_RESULT_RECOMMENDATION, locale) + " *",
+                            "* " + messageService.get(MessageKey.METRIC_LITERS, locale)},
+                    new String[]{
+                            messageService.get(MessageKey.CALCULATION_CALORIES_RESULT, locale) + "\n\n"
+                                    + messageService.get(MessageKey.CALCULATION_RESULT_DAILY_NEEDS, locale) + " *",
+                            "* " + messageService.get(MessageKey.METRIC_KCAL, locale)},
+                    new String[]{
+                            messageService.get(MessageKey.CALCULATION_MACROS_RESULT, locale) + "\n\n"
+                                    + "🥩 " + messageService.get(MessageKey.MACROS_PROTEIN, locale) + ": *",
+                            grams + "\n" + "🥑 " + messageService.get(MessageKey.MACROS_FAT, locale) + ": *",
+                            grams + "\n" + "🍚 " + messageService.get(MessageKey.MACROS_CARBS, locale) + ": *",
+                            grams},
+                    // Шаблон с {0} форматируется с маркером и режется по нему, так что кавычки MessageFormat уже раскрыты
+                    messageService.format(MessageKey.INFO_IRON_PERSONAL_RECOMMENDATION, locale, SLOT)
+                            .split(SLOT, -1),
+                    messageService.format(MessageKey.INFO_IRON, locale)));
+        }
     }
 
-    public List<String> getOptions() {
-        return Arrays.stream(CalculationOption.class.getEnumConstants())
-                .map(Enum::name)
-                .collect(Collectors.toList());
+    private ResultTexts resultTexts(Locale locale) {
+        ResultTexts texts = resultTexts.get(locale);
+        return texts != null ? texts : resultTexts.get(messageService.getDefaultLocale());
     }
 
-    public SendMessage handleCalculationMenu(long chatId, String text, Locale locale) {
-        User user = userService.getUser(chatId);
+    // Опции без своего сообщения пропускаются
+    private static Map<CalculationOption, MessageKey> optionKeys(String prefix) {
+        Map<CalculationOption, MessageKey> keys = new EnumMap<>(CalculationOption.class);
+        for (CalculationOption option : CalculationOption.values()) {
+            MessageKey key = MessageKey.byKey(prefix + option.name().toLowerCase());
+            if (key != null) {
+                keys.put(option, key);
+            }
+        }
+        return keys;
+    }
 
+    // Профиль берётся из уже прочитанной сессии чата, отдельного чтения из хранилища нет
+    public SendMessage handleCalculationMenu(long chatId, User user, InputAction action, Locale locale) {
         if (user == null) {
-            return new SendMessage(String.valueOf(chatId), messageService.get("error.user_not_found", locale));
+            return replies.text(chatId, MessageKey.ERROR_USER_NOT_FOUND, locale);
         }
 
         // Определяем выбранную опцию расчета
-        CalculationOption selectedOption = findCalculationOptionByText(text, locale);
+        CalculationOption selectedOption = calculationFor(action);
 
         if (selectedOption != null) {
             return performCalculation(chatId, user, selectedOption, locale);
         }
 
-        String infoMessage = findInfoMessage(text, locale);
+        MessageKey infoMessage = findInfoMessage(action);
         if (infoMessage != null) {
-            return SendMessage.builder()
-                    .chatId(user.chatId())
-                    .parseMode(ParseMode.MARKDOWN)
-                    .text(infoMessage)
-                    .replyMarkup(createBackKeyboardWithOptions(locale))
-                    .build();
+            return replies.markdown(user.chatId(), infoMessage, KeyboardType.BACK, locale);
         }
 
         // Если опция не найдена
-        return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_option", locale));
+        return replies.text(chatId, MessageKey.ERROR_INVALID_OPTION, locale);
     }
 
-    private CalculationOption findCalculationOptionByText(String text, Locale locale) {
-        for (CalculationOption option : CalculationOption.values()) {
-            String optionText = messageService.get("calculation." + option.name().toLowerCase(), locale);
-            if (optionText.equals(text)) {
-                return option;
-            }
-        }
-        return null;
+    private static CalculationOption calculationFor(InputAction action) {
+        return switch (action) {
+            case CALCULATE_WATER -> CalculationOption.WATER;
+            case CALCULATE_CALORIES -> CalculationOption.CALORIES;
+            case CALCULATE_MACROS -> CalculationOption.MACROS;
+            case CALCULATE_SODIUM -> CalculationOption.SODIUM;
+            case CALCULATE_IRON -> CalculationOption.IRON;
+            default -> null;
+        };
     }
 
     private SendMessage performCalculation(long chatId, User user, CalculationOption option, Locale locale) {
@@ -79,224 +130,101 @@ public class CalculationService {
         try {
             switch (option) {
                 case WATER:
-                    message = calculateWaterIntake(user, locale);
+                    message = result(user, option, locale, KeyboardType.BACK_WATER_INFO, () -> calculateWaterIntake(user, locale));
                     break;
                 case CALORIES:
-                    message = calculateCalories(user, locale);
+                    message = result(user, option, locale, KeyboardType.BACK_CALORIES_INFO, () -> calculateCalories(user, locale));
                     break;
                 case MACROS:
-                    message = calculateMacronutrients(user, locale);
+                    message = result(user, option, locale, KeyboardType.BACK_MACROS_INFO, () -> calculateMacronutrients(user, locale));
                     break;
                 case SODIUM:
                     message = getSodiumMessage(user, locale);
                     break;
                 case IRON:
-                    message = getIronMessage(user, locale);
+                    message = result(user, option, locale, KeyboardType.BACK, () -> getIronMessage(user, locale));
                     break;
                 default:
-                    message = new SendMessage(String.valueOf(chatId), messageService.get("error.calculation_not_implemented", locale));
+                    message = replies.text(chatId, MessageKey.ERROR_CALCULATION_NOT_IMPLEMENTED, locale);
             }
         } catch (Exception e) {
-            message = new SendMessage(String.valueOf(chatId), messageService.get("error.calculation_failed", locale));
+            message = replies.text(chatId, MessageKey.ERROR_CALCULATION_FAILED, locale);
         }
 
         return message;
     }
 
-    private SendMessage calculateWaterIntake(User user, Locale locale) {
-        // Формула: вес * 0.03 (рекомендуемое количество воды в литрах)
-        double waterIntake = user.weight() * 0.03;
-        String formattedWater = String.format("%.2f", waterIntake);
-        String message = messageService.get("calculation.water.result", locale) +
-                "\n\n" + messageService.get("calculation.result.recommendation", locale) +
-                " *" + formattedWater + "* " + messageService.get("metric.liters", locale);
-        return SendMessage.builder()
-                .chatId(user.chatId())
-                .parseMode(ParseMode.MARKDOWN)
-                .text(message)
-                .replyMarkup(createBackKeyboardWithOptions(locale, "info.button.water"))
-                .build();
+    // Текст результата берётся из кэша, chatId подставляется уже в готовый ответ
+    private SendMessage result(User user, CalculationOption option, Locale locale, KeyboardType keyboard,
+                               Supplier<String> text) {
+        String message = results.get(CalculationResultCache.Key.of(user, option, locale), text);
+        return replies.markdown(user.chatId(), message, keyboard, locale);
     }
 
-    private SendMessage calculateCalories(User user, Locale locale) {
-        // Базовая формула Миффлина-Сан Жеора
-        double bmr = calculateBMR(user);
-        double calories = bmr * getActivityMultiplier(user.activityLevel());
-
-        String formattedCalories = String.format("%.0f", calories);
-
-        String message = messageService.get("calculation.calories.result", locale) +
-                "\n\n" + messageService.get("calculation.result.daily_needs", locale) +
-                " *" + formattedCalories + "* " + messageService.get("metric.kcal", locale);
-        return SendMessage.builder()
-                .chatId(user.chatId())
-                .parseMode(ParseMode.MARKDOWN)
-                .text(message)
-                .replyMarkup(createBackKeyboardWithOptions(locale, "info.button.calories"))
+    private String calculateWaterIntake(User user, Locale locale) {
+        double waterIntake = NutritionFormulas.waterLiters(user.weight());
+        String[] parts = resultTexts(locale).water();
+        return ReplyText.start()
+                .append(parts[0]).appendFixed(waterIntake, 2).append(parts[1])
                 .build();
     }
 
-    private SendMessage calculateMacronutrients(User user, Locale locale) {
-        double bmr = calculateBMR(user);
-        double calories = bmr * getActivityMultiplier(user.activityLevel());
-
-        // Стандартное распределение БЖУ: 30% белки, 30% жиры, 40% углеводы
-        double proteinCalories = calories * 0.3;
-        double fatCalories = calories * 0.3;
-        double carbCalories = calories * 0.4;
-
-        // Конвертация в граммы (1г белка/углеводов = 4 ккал, 1г жиров = 9 ккал)
-        double proteinGrams = proteinCalories / 4;
-        double fatGrams = fatCalories / 9;
-        double carbGrams = carbCalories / 4;
-
-        String message = messageService.get("calculation.macros.result", locale) +
-                "\n\n" +
-                "🥩 " + messageService.get("macros.protein", locale) + ": *" + String.format("%.0f", proteinGrams) + "* " + messageService.get("metric.grams", locale) + "\n" +
-                "🥑 " + messageService.get("macros.fat", locale) + ": *" + String.format("%.0f", fatGrams) + "* " + messageService.get("metric.grams", locale) + "\n" +
-                "🍚 " + messageService.get("macros.carbs", locale) + ": *" + String.format("%.0f", carbGrams) + "* " + messageService.get("metric.grams", locale);
-        return SendMessage.builder()
-                .chatId(user.chatId())
-                .parseMode(ParseMode.MARKDOWN)
-                .text(message)
-                .replyMarkup(createBackKeyboardWithOptions(locale, "info.button.macros"))
+    private String calculateCalories(User user, Locale locale) {
+        double calories = dailyCalories(user);
+        String[] parts = resultTexts(locale).calories();
+        return ReplyText.start()
+                .append(parts[0]).appendFixed(calories, 0).append(parts[1])
                 .build();
     }
 
-    private double calculateBMR(User user) {
-        // Формула Миффлина-Сан Жеора
-        if (user.sex() == Sex.MALE) {
-            return 10 * user.weight() + 6.25 * user.height() - 5 * user.age() + 5;
-        } else {
-            return 10 * user.weight() + 6.25 * user.height() - 5 * user.age() - 161;
-        }
+    private String calculateMacronutrients(User user, Locale locale) {
+        double calories = dailyCalories(user);
+        String[] parts = resultTexts(locale).macros();
+        return ReplyText.start()
+                .append(parts[0]).appendFixed(NutritionFormulas.proteinGrams(calories), 0)
+                .append(parts[1]).appendFixed(NutritionFormulas.fatGrams(calories), 0)
+                .append(parts[2]).appendFixed(NutritionFormulas.carbsGrams(calories), 0)
+                .append(parts[3])
+                .build();
     }
 
-    private double getActivityMultiplier(ActivityLevel activity) {
-        switch (activity) {
-            case SEDENTARY: return 1.2;
-            case LIGHT: return 1.375;
-            case MODERATE: return 1.55;
-            case ACTIVE: return 1.725;
-            case VERY_ACTIVE: return 1.9;
-            default: return 1.2;
-        }
+    // Без уровня активности расчёт невозможен: NPE превращается в сообщение об ошибке расчёта
+    private static double dailyCalories(User user) {
+        return NutritionFormulas.dailyCalories(user.sex() == Sex.MALE, user.weight(), user.height(), user.age(),
+                user.activityLevel());
     }
 
     private SendMessage getSodiumMessage(User user, Locale locale) {
-        String message = messageService.get("info.sodium", locale);
-        return SendMessage.builder()
-                .chatId(user.chatId())
-                .parseMode(ParseMode.MARKDOWN)
-                .text(message)
-                .replyMarkup(createBackKeyboard(locale))
-                .build();
-    }
-
-    private SendMessage getIronMessage(User user, Locale locale) {
-        String message = "";
-        int ironIntake = getIronIntakeForUserImMilligrams(user);
-        if (ironIntake > 0) {
-            message += messageService.format("info.iron.personal-recommendation", locale, ironIntake);
-        }
-        message += messageService.format("info.iron", locale);
-        return SendMessage.builder()
-                .chatId(user.chatId())
-                .parseMode(ParseMode.MARKDOWN)
-                .text(message)
-                .replyMarkup(createBackKeyboard(locale))
-                .build();
+        return replies.markdown(user.chatId(), MessageKey.INFO_SODIUM, KeyboardType.BACK, locale);
     }
 
-    private int getIronIntakeForUserImMilligrams(User user) {
-        if (user == null) {
-            return 0;
-        }
-        int age = user.age();
-        boolean isMale = user.sex().equals(Sex.MALE);
-        if (age >= 14 && age < 19) {
-            return isMale ? 11 : 15;
+    private String getIronMessage(User user, Locale locale) {
+        ResultTexts texts = resultTexts(locale);
+        int ironIntake = NutritionFormulas.ironMilligrams(user.sex().equals(Sex.MALE), user.age());
+        if (ironIntake <= 0) {
+            return texts.iron();
         }
-        if (age >= 19 && age < 51) {
-            return isMale ? 8 : 18;
+        ReplyText text = ReplyText.start().append(texts.ironPersonal()[0]);
+        for (int i = 1; i < texts.ironPersonal().length; i++) {
+            text.append(ironIntake).append(texts.ironPersonal()[i]);
         }
-        if (age >= 51) {
-            return 8;
-        }
-        return 0;
+        return text.append(texts.iron()).build();
     }
 
-    private String findInfoMessage(String text, Locale locale) {
-        for (CalculationOption option : CalculationOption.values()) {
-            String optionText = messageService.get("info.button." + option.name().toLowerCase(), locale);
-            if (optionText.equals(text)) {
-                return messageService.get("info." + option.name().toLowerCase(), locale);
-            }
-        }
-        return null;
+    private MessageKey findInfoMessage(InputAction action) {
+        CalculationOption option = switch (action) {
+            case INFO_WATER -> CalculationOption.WATER;
+            case INFO_CALORIES -> CalculationOption.CALORIES;
+            case INFO_MACROS -> CalculationOption.MACROS;
+            default -> null;
+        };
+        return option != null ? INFO_TEXTS.get(option) : null;
     }
 
     private SendMessage showEditParamsMenu(long chatId, Locale locale) {
         // Метод для показа меню редактирования параметров
         // (реализация зависит от вашей структуры)
-        String text = messageService.get("menu.edit_params.title", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), text);
-
-        // Добавьте клавиатуру для редактирования параметров
-        ReplyKeyboardMarkup keyboard = createEditParamsKeyboard(locale);
-        message.setReplyMarkup(keyboard);
-
-        return message;
-    }
-
-    private ReplyKeyboardMarkup createEditParamsKeyboard(Locale locale) {
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-        List<KeyboardRow> rows = new ArrayList<>();
-
-        KeyboardRow row1 = new KeyboardRow();
-        row1.add(messageService.get("param.sex.title", locale));
-        row1.add(messageService.get("param.age.title", locale));
-
-        KeyboardRow row2 = new KeyboardRow();
-        row2.add(messageService.get("param.weight.title", locale));
-        row2.add(messageService.get("param.height.title", locale));
-
-        KeyboardRow row3 = new KeyboardRow();
-        row3.add(messageService.get("param.activity.title", locale));
-
-        KeyboardRow row4 = new KeyboardRow();
-        row4.add(messageService.get("start", locale));
-
-        rows.add(row1);
-        rows.add(row2);
-        rows.add(row3);
-        rows.add(row4);
-
-        keyboard.setKeyboard(rows);
-        return keyboard;
-    }
-
-    private ReplyKeyboardMarkup createBackKeyboardWithOptions(Locale locale, String... options) {
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow row = new KeyboardRow();
-        row.add(messageService.get("menu.calculations", locale));
-        row.add(messageService.get("start", locale));
-        if (options != null) {
-            for (String option : options) {
-                row.add(messageService.get(option, locale));
-            }
-        }
-        rows.add(row);
-
-        keyboard.setKeyboard(rows);
-        return keyboard;
-    }
-
-    private ReplyKeyboardMarkup createBackKeyboard(Locale locale) {
-        return createBackKeyboardWithOptions(locale, (String[]) null);
+        // Клавиатура для редактирования параметров
+        return replies.text(chatId, MessageKey.MENU_EDIT_PARAMS_TITLE, KeyboardType.EDIT_PARAMS, locale);
     }
 }
@@ -0,0 +1,407 @@
+package nutrition.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+import nutrition.model.user.UserQuery;
+import nutrition.storage.JsonSnapshot;
+import nutrition.storage.JsonStoreFiles;
+import nutrition.storage.SnapshotCodec;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Хранилище во встроенной H2 в файловом режиме.
+ * <p>
+ * Изменения копятся в памяти (по одной последней записи на чат) и раз в {@code storage.jdbc.flush-interval-ms}
+ * уходят в базу одним пакетом MERGE. Чтения сначала смотрят в неотправленные изменения, затем в базу.
+ * Выборки для админки перед запросом сбрасывают пакет, чтобы видеть все изменения.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "storage.type", havingValue = "jdbc")
+public class JdbcUserStorageService implements UserService {
+
+    private static final String COLUMNS = "chat_id, has_user, age, height, weight, sex, activity, state";
+    private static final String SELECT = "SELECT " + COLUMNS + " FROM users";
+
+    @Value("${storage.data-path:./data}")
+    private String dataPath;
+
+    @Value("${storage.jdbc.filename:bot-users}")
+    private String filename;
+
+    // json-хранилище, из которого импортируются пользователи при первом запуске
+    @Value("${storage.filename:bot-users.json}")
+    private String jsonFilename;
+
+    @Value("${storage.snapshot.format:compact}")
+    private String snapshotFormat;
+
+    @Value("${storage.jdbc.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    private JdbcConnectionPool pool;
+    private ScheduledExecutorService scheduler;
+
+    // Ещё не записанные в базу изменения; запись без профиля и состояния означает удаление
+    private final Map<Long, ChatSession> pending = new ConcurrentHashMap<>();
+    // Растёт перед тем, как flush убирает записанное из очереди; пишется только под блокировкой flush
+    private volatile long flushGeneration;
+    private volatile long lastFlushRecords;
+    private volatile long lastFlushMillis;
+
+    @PostConstruct
+    public void init() {
+        Path dir = Paths.get(dataPath);
+        try {
+            Files.createDirectories(dir);
+            String url = "jdbc:h2:file:" + dir.toAbsolutePath().resolve(filename);
+            this.pool = JdbcConnectionPool.create(url, "sa", "");
+            Path importMarker = JsonStoreFiles.importMarker(dir, filename);
+            // Маркер ставится до создания таблицы, так что прерванный импорт повторится при следующем запуске
+            if (!tableExists()) {
+                JsonStoreFiles.startImport(importMarker);
+            }
+            createSchema();
+            log.info("JDBC storage {} opened with {} records", url, count("SELECT COUNT(*) FROM users"));
+
+            if (Files.exists(importMarker)) {
+                importJson(dir, importMarker);
+            }
+        } catch (IOException | SQLException e) {
+            log.error("Failed to initialize storage", e);
+            throw new RuntimeException("Storage initialization failed", e);
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // chat_id - первичный ключ с уникальным индексом, второй индекс под фильтры админки
+    private void createSchema() throws SQLException {
+        try (Connection connection = pool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS users ("
+                    + "chat_id BIGINT PRIMARY KEY, "
+                    + "has_user BOOLEAN NOT NULL, "
+                    + "age INT NOT NULL, "
+                    + "height INT NOT NULL, "
+                    + "weight INT NOT NULL, "
+                    + "sex VARCHAR(16), "
+                    + "activity VARCHAR(32), "
+                    + "state VARCHAR(32))");
+            statement.execute("CREATE INDEX IF NOT EXISTS users_profile ON users (sex, activity, age)");
+        }
+    }
+
+    private boolean tableExists() throws SQLException {
+        try (Connection connection = pool.getConnection();
+             ResultSet tables = connection.getMetaData().getTables(null, null, "USERS", null)) {
+            return tables.next();
+        }
+    }
+
+    // Забирает всё json-хранилище: шарды любой раскладки с дельтами и журналом
+    private void importJson(Path dir, Path importMarker) throws IOException {
+        SnapshotCodec snapshot = new SnapshotCodec(new JsonSnapshot(new ObjectMapper()), snapshotFormat);
+        JsonStoreFiles.read(dir, jsonFilename, snapshot, entry -> updateSession(entry.chatId(), session -> entry));
+        flush();
+        JsonStoreFiles.finishImport(importMarker);
+        log.info("Imported json storage from {}, {} records", dir, lastFlushRecords);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        flushQuietly();
+        pool.dispose();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush pending changes", e);
+        }
+    }
+
+    /**
+     * Пишет накопленные изменения одной транзакцией. Запись убирается из очереди,
+     * только если её не успели заменить новой, поэтому параллельные обновления не теряются.
+     */
+    private synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<ChatSession> batch = new ArrayList<>(pending.values());
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement merge = connection.prepareStatement(
+                    "MERGE INTO users (" + COLUMNS + ") KEY (chat_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM users WHERE chat_id = ?")) {
+                for (ChatSession entry : batch) {
+                    if (entry.user() == null && entry.state() == null) {
+                        delete.setLong(1, entry.chatId());
+                        delete.addBatch();
+                    } else {
+                        bind(merge, entry);
+                        merge.addBatch();
+                    }
+                }
+                merge.executeBatch();
+                delete.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to write " + batch.size() + " records", e);
+        }
+        flushGeneration++;
+        for (ChatSession entry : batch) {
+            pending.remove(entry.chatId(), entry);
+        }
+        lastFlushRecords = batch.size();
+        lastFlushMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static void bind(PreparedStatement statement, ChatSession entry) throws SQLException {
+        User user = entry.user();
+        statement.setLong(1, entry.chatId());
+        statement.setBoolean(2, user != null);
+        statement.setInt(3, user != null ? user.age() : 0);
+        statement.setInt(4, user != null ? user.height() : 0);
+        statement.setInt(5, user != null ? user.weight() : 0);
+        setEnum(statement, 6, user != null ? user.sex() : null);
+        setEnum(statement, 7, user != null ? user.activityLevel() : null);
+        setEnum(statement, 8, entry.state());
+    }
+
+    private static void setEnum(PreparedStatement statement, int index, Enum<?> value) throws SQLException {
+        if (value != null) {
+            statement.setString(index, value.name());
+        } else {
+            statement.setNull(index, Types.VARCHAR);
+        }
+    }
+
+    private static ChatSession readEntry(ResultSet rs) throws SQLException {
+        long chatId = rs.getLong(1);
+        User user = null;
+        if (rs.getBoolean(2)) {
+            String sex = rs.getString(6);
+            String activity = rs.getString(7);
+            user = new User(chatId, rs.getInt(3), rs.getInt(4), rs.getInt(5),
+                    sex != null ? Sex.valueOf(sex) : null,
+                    activity != null ? ActivityLevel.valueOf(activity) : null);
+        }
+        String state = rs.getString(8);
+        return new ChatSession(chatId, user, state != null ? RegistrationState.valueOf(state) : null);
+    }
+
+    private ChatSession load(long chatId) {
+        ChatSession entry = pending.get(chatId);
+        return entry != null ? entry : loadStored(chatId);
+    }
+
+    private ChatSession loadStored(long chatId) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT + " WHERE chat_id = ?")) {
+            statement.setLong(1, chatId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? readEntry(rs) : null;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to read chat " + chatId, e);
+        }
+    }
+
+    /**
+     * Атомарно меняет запись чата в очереди изменений.
+     * Запрос к базе идёт вне блокировок карты, поэтому при гонке функция применяется повторно.
+     * <p>
+     * Пустая очередь для чата ещё не значит, что прочитанная строка свежая: между чтением и публикацией
+     * другой поток мог поставить запись в очередь, а flush - записать её и убрать. Поэтому запись
+     * по строке из базы публикуется, только если с момента чтения не прошло ни одного flush.
+     *
+     * @return запись до изменения
+     */
+    private ChatSession update(long chatId, UnaryOperator<ChatSession> function) {
+        while (true) {
+            long generation = flushGeneration;
+            ChatSession queued = pending.get(chatId);
+            ChatSession current = queued != null ? queued : loadStored(chatId);
+            ChatSession previous = current != null && (current.user() != null || current.state() != null) ? current : null;
+            ChatSession updated = function.apply(previous);
+            if (updated == null || updated == previous) {
+                return previous;
+            }
+            boolean applied = queued != null
+                    ? pending.replace(chatId, queued, updated)
+                    : publishLoaded(chatId, updated, generation);
+            if (applied) {
+                return previous;
+            }
+        }
+    }
+
+    // Проверка и вставка под блокировкой ключа: flush убирает записи после смены поколения
+    private boolean publishLoaded(long chatId, ChatSession updated, long generation) {
+        boolean[] published = {false};
+        pending.compute(chatId, (id, queued) -> {
+            if (queued != null || flushGeneration != generation) {
+                return queued;
+            }
+            published[0] = true;
+            return updated;
+        });
+        return published[0];
+    }
+
+    @Override
+    public ChatSession getSession(long chatId) {
+        return load(chatId);
+    }
+
+    @Override
+    public ChatSession updateSession(long chatId, UnaryOperator<ChatSession> function) {
+        SessionUpdate update = new SessionUpdate(chatId, function);
+        update(chatId, update);
+        return update.result();
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return findUsers(UserQuery.all());
+    }
+
+    @Override
+    public void forEachEntry(Consumer<ChatSession> consumer) {
+        flush();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT)) {
+            statement.setFetchSize(1000);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(readEntry(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to read users", e);
+        }
+    }
+
+    @Override
+    public List<User> findUsers(UserQuery query) {
+        flush();
+        List<Object> params = new ArrayList<>();
+        String sql = SELECT + where(query, params) + " ORDER BY chat_id LIMIT ? OFFSET ?";
+        params.add(query.limit());
+        params.add(query.offset());
+        List<User> users = new ArrayList<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = prepare(connection, sql, params);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                users.add(readEntry(rs).user());
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to query users", e);
+        }
+        return users;
+    }
+
+    @Override
+    public long countUsers(UserQuery query) {
+        flush();
+        List<Object> params = new ArrayList<>();
+        try {
+            return count("SELECT COUNT(*) FROM users" + where(query, params), params.toArray());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to count users", e);
+        }
+    }
+
+    private static String where(UserQuery query, List<Object> params) {
+        StringBuilder where = new StringBuilder(" WHERE has_user");
+        if (query.sex() != null) {
+            where.append(" AND sex = ?");
+            params.add(query.sex().name());
+        }
+        if (query.activityLevel() != null) {
+            where.append(" AND activity = ?");
+            params.add(query.activityLevel().name());
+        }
+        if (query.minAge() != null) {
+            where.append(" AND age >= ?");
+            params.add(query.minAge());
+        }
+        if (query.maxAge() != null) {
+            where.append(" AND age <= ?");
+            params.add(query.maxAge());
+        }
+        return where.toString();
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, List<Object> params) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+        return statement;
+    }
+
+    private long count(String sql, Object... params) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = prepare(connection, sql, List.of(params));
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        try {
+            stats.put("chats", count("SELECT COUNT(*) FROM users"));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to count users", e);
+        }
+        stats.put("pendingChats", pending.size());
+        stats.put("lastFlushRecords", lastFlushRecords);
+        stats.put("lastFlushMillis", lastFlushMillis);
+        return stats;
+    }
+}
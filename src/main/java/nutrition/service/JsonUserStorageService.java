@@ -1,32 +1,42 @@
 package nutrition.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import jakarta.annotation.PostConstruct;
-import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import nutrition.model.user.RegistrationState;
+import nutrition.model.user.ChatSession;
 import nutrition.model.user.User;
+import nutrition.storage.JsonSnapshot;
+import nutrition.storage.JsonStoreFiles;
+import nutrition.storage.LongUserMap;
+import nutrition.storage.SnapshotCodec;
+import nutrition.storage.StorageShard;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 @Service
 @Slf4j
+@ConditionalOnProperty(name = "storage.type", havingValue = "json", matchIfMissing = true)
 public class JsonUserStorageService implements UserService{
 
     @Value("${storage.data-path:./data}")
@@ -35,63 +45,37 @@ public class JsonUserStorageService implements UserService{
     @Value("${storage.filename:bot-users.json}")
     private String filename;
 
-    private Path dataFilePath;
-    private final ObjectMapper objectMapper;
+    @Value("${storage.snapshot.format:compact}")
+    private String snapshotFormat;
 
-    private final Map<Long, User> users = new ConcurrentHashMap<>();
-    private final Map<Long, RegistrationState> userStates = new ConcurrentHashMap<>();
+    @Value("${storage.shards:8}")
+    private int shardCount;
 
-    public JsonUserStorageService() {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
-        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-    }
+    @Value("${storage.journal.sync-interval-ms:100}")
+    private long journalSyncIntervalMs;
 
-    private synchronized void loadData() {
-        try {
-            if (Files.exists(dataFilePath)) {
-                String json = Files.readString(dataFilePath);
-                StorageData storageData = objectMapper.readValue(json, StorageData.class);
+    @Value("${storage.checkpoint.interval-seconds:60}")
+    private long checkpointIntervalSeconds;
 
-                users.clear();
-                if (storageData.getUsers() != null) {
-                    users.putAll(storageData.getUsers());
-                }
+    @Value("${storage.checkpoint.merge-interval-seconds:3600}")
+    private long mergeIntervalSeconds;
 
-                userStates.clear();
-                if (storageData.getUserStates() != null) {
-                    storageData.getUserStates().forEach((key, value) ->
-                            userStates.put(Long.parseLong(key), RegistrationState.valueOf(value)));
-                }
+    private final JsonSnapshot jsonSnapshot;
+    private SnapshotCodec snapshot;
+    private List<StorageShard> shards;
 
-                log.info("Loaded {} users and {} states from {}",
-                        users.size(), userStates.size(), dataFilePath);
-            } else {
-                log.info("Data file {} not found, starting with empty storage", dataFilePath);
-            }
-        } catch (Exception e) {
-            log.error("Failed to load data from {}", dataFilePath, e);
-        }
-    }
+    // Профиль и состояние чата хранятся вместе в одном слоте
+    private final LongUserMap entries = new LongUserMap();
 
-    private synchronized void saveData() {
-        try {
-            StorageData storageData = new StorageData();
-            storageData.setUsers(new HashMap<>(users));
+    private volatile long lastCheckpointMillis;
+    private volatile long lastCheckpointRecords;
+    private volatile long lastCheckpointBytes;
+    private volatile long lastMergeMillis;
 
-            Map<String, String> states = new HashMap<>();
-            userStates.forEach((key, value) -> states.put(key.toString(), value.name()));
-            storageData.setUserStates(states);
-
-            String json = objectMapper.writeValueAsString(storageData);
-            Files.writeString(dataFilePath, json, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
-
-            log.info("Saved {} users and {} states to {}",
-                    users.size(), userStates.size(), dataFilePath);
-        } catch (Exception e) {
-            log.error("Failed to save data to {}", dataFilePath, e);
-        }
+    public JsonUserStorageService() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        this.jsonSnapshot = new JsonSnapshot(objectMapper);
     }
 
     @PostConstruct
@@ -99,78 +83,223 @@ public class JsonUserStorageService implements UserService{
         Path dir = Paths.get(dataPath);
         try {
             Files.createDirectories(dir);
-            this.dataFilePath = dir.resolve(filename);
-            log.info("Storage path: {}", dataFilePath.toAbsolutePath());
+            log.info("Storage path: {}, {} shards, {} snapshots", dir.toAbsolutePath(), shardCount, snapshotFormat);
+            this.snapshot = new SnapshotCodec(jsonSnapshot, snapshotFormat);
+
+            String name = JsonStoreFiles.baseName(filename);
+            this.shards = createShards(dir, name, shardCount);
+            List<StorageShard> previous = previousLayouts(dir, name);
+
+            long start = System.nanoTime();
+            loadShards(previous);
+            loadShards(shards);
+            log.info("Loaded {} chats in {} ms", entries.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            if (!previous.isEmpty()) {
+                reshard(previous);
+            }
+            for (StorageShard shard : shards) {
+                shard.open();
+            }
         } catch (IOException e) {
             log.error("Failed to initialize storage", e);
             throw new RuntimeException("Storage initialization failed", e);
         }
-        loadData();
         startAutoSave();
     }
 
+    private List<StorageShard> createShards(Path dir, String name, int count) {
+        return JsonStoreFiles.shards(dir, name, count, snapshot);
+    }
+
+    // Файлы с другим числом шардов либо несшардированный bot-users.json от прежних версий
+    private List<StorageShard> previousLayouts(Path dir, String name) throws IOException {
+        List<StorageShard> previous = new ArrayList<>();
+        StorageShard legacy = JsonStoreFiles.legacy(dir, name, snapshot);
+        if (legacy.exists()) {
+            previous.add(legacy);
+        }
+
+        SortedSet<Integer> counts = JsonStoreFiles.shardCounts(dir, name);
+        counts.remove(shardCount);
+        for (int count : counts) {
+            previous.addAll(createShards(dir, name, count));
+        }
+        return previous;
+    }
+
+    private void loadShards(List<StorageShard> toLoad) throws IOException {
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(toLoad.size());
+        for (StorageShard shard : toLoad) {
+            tasks.add(() -> {
+                shard.load(entries);
+                return null;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(toLoad.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading shards", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to load shard", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Переписывает всё в текущую раскладку и удаляет файлы прежних
+    private void reshard(List<StorageShard> previous) throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            int index = i;
+            StorageShard shard = shards.get(i);
+            shard.deleteFiles();
+            shard.writeBase(consumer -> entries.forEach(entry -> {
+                if (shardIndex(entry.chatId()) == index) {
+                    consumer.accept(entry);
+                }
+            }));
+        }
+        for (StorageShard shard : previous) {
+            shard.deleteFiles();
+            log.info("Migrated {} to {} shards", shard.getName(), shards.size());
+        }
+    }
+
     private void startAutoSave() {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        // Отдельные потоки, чтобы долгое слияние не задерживало fsync журнала и чекпоинты
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
 
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                saveData();
-            } catch (Exception e) {
-                log.error("Auto-save failed", e);
+        scheduler.scheduleWithFixedDelay(() -> {
+            for (StorageShard shard : shards) {
+                try {
+                    shard.sync();
+                } catch (Exception e) {
+                    log.error("Journal sync failed for {}", shard.getName(), e);
+                }
             }
-        }, 1, 1, TimeUnit.DAYS);
+        }, journalSyncIntervalMs, journalSyncIntervalMs, TimeUnit.MILLISECONDS);
+
+        scheduler.scheduleWithFixedDelay(this::checkpoint,
+                checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+
+        scheduler.scheduleWithFixedDelay(this::mergeDeltas,
+                mergeIntervalSeconds, mergeIntervalSeconds, TimeUnit.SECONDS);
 
         // Останавливаем при завершении
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             scheduler.shutdown();
-            saveData();
+            checkpoint();
+            for (StorageShard shard : shards) {
+                try {
+                    shard.close();
+                } catch (IOException e) {
+                    log.error("Failed to close journal of {}", shard.getName(), e);
+                }
+            }
         }));
     }
 
-    @Override
-    public User getUser(long chatId) {
-        return users.get(chatId);
+    // Чекпоинт трогает только шарды, в которых были изменения
+    private synchronized void checkpoint() {
+        long start = System.nanoTime();
+        long records = 0;
+        long bytes = 0;
+        for (StorageShard shard : shards) {
+            try {
+                if (shard.checkpoint(entries::get)) {
+                    records += shard.getLastCheckpointRecords();
+                    bytes += shard.getLastCheckpointBytes();
+                }
+            } catch (Exception e) {
+                log.error("Checkpoint failed for {}", shard.getName(), e);
+            }
+        }
+        if (records > 0) {
+            lastCheckpointRecords = records;
+            lastCheckpointBytes = bytes;
+            lastCheckpointMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("Checkpoint wrote {} chats ({} bytes) in {} ms", records, bytes, lastCheckpointMillis);
+        }
     }
 
-    @Override
-    public User getOrCreateUser(long chatId) {
-        return users.getOrDefault(chatId, new User(chatId));
+    private void mergeDeltas() {
+        long millis = 0;
+        for (StorageShard shard : shards) {
+            try {
+                millis += shard.merge();
+            } catch (Exception e) {
+                log.error("Delta merge failed for {}", shard.getName(), e);
+            }
+        }
+        if (millis > 0) {
+            lastMergeMillis = millis;
+        }
     }
 
-    @Override
-    public void saveUser(User user) {
-        users.put(user.chatId(), user);
+    private int shardIndex(long chatId) {
+        return Math.floorMod(Long.hashCode(chatId), shards.size());
     }
 
-    @Override
-    public RegistrationState getUserState(long chatId) {
-        return userStates.get(chatId);
+    private void recordChange(long chatId) {
+        shards.get(shardIndex(chatId)).recordChange(chatId, entries::get);
     }
 
     @Override
-    public void setUserState(long chatId, RegistrationState state) {
-        userStates.put(chatId, state);
+    public ChatSession getSession(long chatId) {
+        return entries.get(chatId);
     }
 
     @Override
-    public boolean exist(long chatId) {
-        return users.get(chatId) != null;
+    public ChatSession updateSession(long chatId, UnaryOperator<ChatSession> function) {
+        SessionUpdate update = new SessionUpdate(chatId, function);
+        entries.update(chatId, update);
+        if (update.changed()) {
+            recordChange(chatId);
+        }
+        return update.result();
     }
 
     @Override
     public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());
+        List<User> users = new ArrayList<>(entries.size());
+        entries.forEach(entry -> {
+            if (entry.user() != null) {
+                users.add(entry.user());
+            }
+        });
+        return users;
     }
 
     @Override
-    public User delete(Long chatId) {
-        return users.remove(chatId);
+    public void forEachEntry(Consumer<ChatSession> consumer) {
+        entries.forEach(consumer);
     }
-}
 
-// Класс для хранения данных
-@Data
-class StorageData {
-    private Map<Long, User> users = new HashMap<>();
-    private Map<String, String> userStates = new HashMap<>();
+    @Override
+    public Map<String, Object> getStats() {
+        int dirtyChats = 0;
+        long journalBytes = 0;
+        for (StorageShard shard : shards) {
+            dirtyChats += shard.getDirtyCount();
+            journalBytes += shard.getJournalBytes();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chats", entries.size());
+        stats.put("shards", shards.size());
+        stats.put("dirtyChats", dirtyChats);
+        stats.put("journalBytes", journalBytes);
+        stats.put("lastCheckpointMillis", lastCheckpointMillis);
+        stats.put("lastCheckpointRecords", lastCheckpointRecords);
+        stats.put("lastCheckpointBytes", lastCheckpointBytes);
+        stats.put("lastMergeMillis", lastMergeMillis);
+        return stats;
+    }
 }
@@ -0,0 +1,186 @@
+package nutrition.service;
+
+import jakarta.annotation.PostConstruct;
+import nutrition.model.CalculationOption;
+import nutrition.model.message.KeyboardType;
+import nutrition.model.message.MessageKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Клавиатуры ответов, собранные один раз на каждую пару (локаль, {@link KeyboardType}).
+ * <p>
+ * Клавиатура зависит только от локали, поэтому один и тот же объект подставляется во все ответы
+ * и только сериализуется при отправке. Неизменяем только внешний список рядов: сами ряды - это
+ * {@link KeyboardRow}, то есть обычные {@code ArrayList}, и библиотека не даёт подставить вместо них
+ * неизменяемые списки. Поэтому ни клавиатуру, ни её ряды менять нельзя - правка попадёт во все ответы
+ * этой локали. Если нужна изменённая клавиатура, соберите новую.
+ */
+@Component
+public class KeyboardRegistry {
+
+    private static final int[] WEIGHTS = {40, 45, 50, 55, 60, 65, 70, 75, 80, 85, 90, 95, 100};
+    private static final int[] HEIGHTS = {140, 145, 150, 155, 160, 165, 170, 175, 180, 185, 190, 195, 200};
+
+    private final MessageService messageService;
+    private final Map<Locale, Map<KeyboardType, ReplyKeyboardMarkup>> keyboards = new HashMap<>();
+
+    @Autowired
+    public KeyboardRegistry(MessageService messageService) {
+        this.messageService = messageService;
+    }
+
+    @PostConstruct
+    public void build() {
+        for (Locale locale : messageService.getLocales()) {
+            Map<KeyboardType, ReplyKeyboardMarkup> byType = new EnumMap<>(KeyboardType.class);
+            for (KeyboardType type : KeyboardType.values()) {
+                byType.put(type, build(type, locale));
+            }
+            keyboards.put(locale, byType);
+        }
+    }
+
+    /**
+     * Общая для всех ответов клавиатура: только для отправки, изменять её и её ряды нельзя.
+     */
+    public ReplyKeyboardMarkup get(KeyboardType type, Locale locale) {
+        Map<KeyboardType, ReplyKeyboardMarkup> byType = keyboards.get(locale);
+        if (byType == null) {
+            byType = keyboards.get(messageService.getDefaultLocale());
+        }
+        return byType.get(type);
+    }
+
+    private ReplyKeyboardMarkup build(KeyboardType type, Locale locale) {
+        Builder keyboard = new Builder(locale);
+        switch (type) {
+            case START -> keyboard
+                    .row(MessageKey.MENU_ENTER_PARAMS)
+                    .row(MessageKey.MENU_CALCULATIONS)
+                    .oneTime();
+            case SEX -> keyboard
+                    .row(MessageKey.PARAM_SEX_MALE, MessageKey.PARAM_SEX_FEMALE)
+                    .row(MessageKey.NAVIGATION_SKIP, MessageKey.START);
+            case NAVIGATION -> keyboard
+                    .navigation();
+            case WEIGHT -> keyboard
+                    .values(WEIGHTS, MessageKey.METRIC_KG)
+                    .navigation()
+                    .oneTime();
+            case HEIGHT -> keyboard
+                    .values(HEIGHTS, MessageKey.METRIC_SM)
+                    .navigation()
+                    .oneTime();
+            case ACTIVITY -> keyboard
+                    .row(MessageKey.PARAM_ACTIVITY_SEDENTARY, MessageKey.PARAM_ACTIVITY_LIGHT)
+                    .row(MessageKey.PARAM_ACTIVITY_MODERATE, MessageKey.PARAM_ACTIVITY_ACTIVE)
+                    .row(MessageKey.PARAM_ACTIVITY_VERY_ACTIVE)
+                    .navigation();
+            case OPTIONS -> keyboard
+                    .options()
+                    .row(MessageKey.MENU_EDIT_PARAMS)
+                    .row(MessageKey.START);
+            case EDIT_PARAMS -> keyboard
+                    .row(MessageKey.PARAM_SEX_TITLE, MessageKey.PARAM_AGE_TITLE)
+                    .row(MessageKey.PARAM_WEIGHT_TITLE, MessageKey.PARAM_HEIGHT_TITLE)
+                    .row(MessageKey.PARAM_ACTIVITY_TITLE)
+                    .row(MessageKey.START);
+            case BACK -> keyboard
+                    .row(MessageKey.MENU_CALCULATIONS, MessageKey.START);
+            case BACK_WATER_INFO -> keyboard
+                    .row(MessageKey.MENU_CALCULATIONS, MessageKey.START, MessageKey.INFO_BUTTON_WATER);
+            case BACK_CALORIES_INFO -> keyboard
+                    .row(MessageKey.MENU_CALCULATIONS, MessageKey.START, MessageKey.INFO_BUTTON_CALORIES);
+            case BACK_MACROS_INFO -> keyboard
+                    .row(MessageKey.MENU_CALCULATIONS, MessageKey.START, MessageKey.INFO_BUTTON_MACROS);
+        }
+        return keyboard.build();
+    }
+
+    private final class Builder {
+
+        private final Locale locale;
+        private final List<KeyboardRow> rows = new ArrayList<>();
+        private boolean oneTime;
+
+        Builder(Locale locale) {
+            this.locale = locale;
+        }
+
+        Builder row(MessageKey... buttons) {
+            KeyboardRow row = new KeyboardRow();
+            for (MessageKey button : buttons) {
+                row.add(messageService.get(button, locale));
+            }
+            rows.add(row);
+            return this;
+        }
+
+        Builder navigation() {
+            return row(MessageKey.NAVIGATION_SKIP, MessageKey.NAVIGATION_BACK, MessageKey.START);
+        }
+
+        // Значения с единицей измерения по 4 в ряд
+        Builder values(int[] values, MessageKey unit) {
+            String suffix = " " + messageService.get(unit, locale);
+            KeyboardRow row = new KeyboardRow();
+            for (int value : values) {
+                row.add(value + suffix);
+                if (row.size() == 4) {
+                    rows.add(row);
+                    row = new KeyboardRow();
+                }
+            }
+            if (!row.isEmpty()) {
+                rows.add(row);
+            }
+            return this;
+        }
+
+        // Опции расчётов по 2 в ряд
+        Builder options() {
+            KeyboardRow row = new KeyboardRow();
+            for (CalculationOption option : CalculationOption.values()) {
+                MessageKey title = MessageKey.byKey("calculation." + option.name().toLowerCase());
+                if (title == null) {
+                    continue;
+                }
+                row.add(messageService.get(title, locale));
+                if (row.size() == 2) {
+                    rows.add(row);
+                    row = new KeyboardRow();
+                }
+            }
+            if (!row.isEmpty()) {
+                rows.add(row);
+            }
+            return this;
+        }
+
+        Builder oneTime() {
+            oneTime = true;
+            return this;
+        }
+
+        ReplyKeyboardMarkup build() {
+            ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
+            keyboard.setResizeKeyboard(true);
+            if (oneTime) {
+                keyboard.setOneTimeKeyboard(true);
+            }
+            // Копия закрывает только список рядов; ряды остаются изменяемыми, см. описание класса
+            keyboard.setKeyboard(List.copyOf(rows));
+            return keyboard;
+        }
+    }
+}
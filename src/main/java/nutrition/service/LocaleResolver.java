@@ -0,0 +1,56 @@
+package nutrition.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Приводит {@code language_code} из Telegram к одной из локалей каталога сообщений.
+ * <p>
+ * Тег сужается по RFC 4647 ({@code en-US} -> {@code en}), если совпадения нет - берётся
+ * {@code messages.default-locale}. Результат запоминается по исходной строке, так что на каждое
+ * сообщение это одно чтение из таблицы, и возвращается всегда один и тот же экземпляр Locale.
+ */
+@Component
+public class LocaleResolver {
+
+    // language_code задаёт клиент, поэтому таблица ограничена; редкие теги сверх лимита просто не кэшируются
+    private static final int MAX_CACHED_CODES = 1024;
+
+    private final MessageService messageService;
+    private final Map<String, Locale> resolved = new ConcurrentHashMap<>();
+
+    @Autowired
+    public LocaleResolver(MessageService messageService) {
+        this.messageService = messageService;
+    }
+
+    public Locale resolve(String languageCode) {
+        if (languageCode == null || languageCode.isEmpty()) {
+            return messageService.getDefaultLocale();
+        }
+        Locale locale = resolved.get(languageCode);
+        if (locale == null) {
+            locale = lookup(languageCode);
+            if (resolved.size() < MAX_CACHED_CODES) {
+                resolved.putIfAbsent(languageCode, locale);
+            }
+        }
+        return locale;
+    }
+
+    private Locale lookup(String languageCode) {
+        Locale locale;
+        try {
+            List<Locale.LanguageRange> ranges = Locale.LanguageRange.parse(languageCode.replace('_', '-'));
+            locale = Locale.lookup(ranges, messageService.getLocales());
+        } catch (IllegalArgumentException e) {
+            locale = null;
+        }
+        return locale != null ? locale : messageService.getDefaultLocale();
+    }
+}
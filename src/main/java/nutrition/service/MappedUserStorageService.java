@@ -0,0 +1,148 @@
+package nutrition.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.User;
+import nutrition.storage.JsonSnapshot;
+import nutrition.storage.JsonStoreFiles;
+import nutrition.storage.MappedUserStore;
+import nutrition.storage.SnapshotCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "storage.type", havingValue = "mapped")
+public class MappedUserStorageService implements UserService {
+
+    @Value("${storage.data-path:./data}")
+    private String dataPath;
+
+    @Value("${storage.mapped.filename:bot-users.dat}")
+    private String filename;
+
+    // json-хранилище, из которого импортируются пользователи при первом запуске
+    @Value("${storage.filename:bot-users.json}")
+    private String jsonFilename;
+
+    @Value("${storage.snapshot.format:compact}")
+    private String snapshotFormat;
+
+    @Value("${storage.mapped.initial-capacity:65536}")
+    private int initialCapacity;
+
+    @Value("${storage.mapped.force-interval-ms:1000}")
+    private long forceIntervalMs;
+
+    private MappedUserStore store;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        Path dir = Paths.get(dataPath);
+        try {
+            Files.createDirectories(dir);
+            Path storeFile = dir.resolve(filename);
+            Path importMarker = JsonStoreFiles.importMarker(dir, filename);
+            // Маркер ставится до создания файла, так что прерванный импорт повторится при следующем запуске
+            if (!Files.exists(storeFile)) {
+                JsonStoreFiles.startImport(importMarker);
+            }
+            this.store = MappedUserStore.open(storeFile, initialCapacity);
+            log.info("Mapped storage {} opened with {} records", storeFile.toAbsolutePath(), store.size());
+
+            if (Files.exists(importMarker)) {
+                importJson(dir, importMarker);
+            }
+        } catch (IOException e) {
+            log.error("Failed to initialize storage", e);
+            throw new RuntimeException("Storage initialization failed", e);
+        }
+
+        // Без этого изменения доходят до диска только когда ОС сама сбросит page cache
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::forceQuietly, forceIntervalMs, forceIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Забирает всё json-хранилище: шарды любой раскладки с дельтами и журналом
+    private void importJson(Path dir, Path importMarker) throws IOException {
+        SnapshotCodec snapshot = new SnapshotCodec(new JsonSnapshot(new ObjectMapper()), snapshotFormat);
+        JsonStoreFiles.read(dir, jsonFilename, snapshot, entry -> updateSession(entry.chatId(), session -> entry));
+        store.force();
+        JsonStoreFiles.finishImport(importMarker);
+        log.info("Imported json storage from {}, {} records", dir, store.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        store.close();
+    }
+
+    private void forceQuietly() {
+        try {
+            store.force();
+        } catch (Exception e) {
+            log.error("Failed to force storage to disk", e);
+        }
+    }
+
+    @Override
+    public ChatSession getSession(long chatId) {
+        return store.get(chatId);
+    }
+
+    @Override
+    public ChatSession updateSession(long chatId, UnaryOperator<ChatSession> function) {
+        SessionUpdate update = new SessionUpdate(chatId, function);
+        update(chatId, update);
+        return update.result();
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>(store.size());
+        store.forEach(entry -> {
+            if (entry.user() != null) {
+                users.add(entry.user());
+            }
+        });
+        return users;
+    }
+
+    @Override
+    public void forEachEntry(Consumer<ChatSession> consumer) {
+        store.forEach(consumer);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        return Map.of("chats", store.size());
+    }
+
+    private ChatSession update(long chatId, UnaryOperator<ChatSession> function) {
+        try {
+            return store.update(chatId, function);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update chat " + chatId, e);
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package nutrition.service;
 
 import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.message.InputAction;
+import nutrition.model.message.MessageKey;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -17,14 +21,34 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
+/**
+ * Каталог сообщений, скомпилированный при старте: на каждую локаль массив строк по
+ * {@link MessageKey#ordinal()}, заранее разобранные шаблоны {@link MessageFormat}
+ * и обратный индекс от текста кнопки к {@link InputAction}.
+ * После загрузки каталог не меняется, поэтому поиск - чтение из массива или хеш-таблицы без блокировок.
+ */
+@Slf4j
 @Service
 public class MessageService {
 
-    private final Map<Locale, Properties> messages = new HashMap<>();
+    private static final MessageKey[] KEYS = MessageKey.values();
+    private static final InputAction[] ACTIONS = InputAction.values();
+
+    private final Map<Locale, Catalog> messages = new HashMap<>();
+    private Catalog defaultCatalog;
+
+    // Локаль, в которую уходят неподдерживаемые языки и недостающие в других локалях сообщения
+    @Value("${messages.default-locale:ru}")
+    private Locale defaultLocale;
+
+    private record Catalog(String[] texts, MessageFormat[] formats, Map<String, InputAction> actions) {
+    }
 
     @PostConstruct
     public void loadMessages() {
+        Map<Locale, Properties> files = new HashMap<>();
         try {
             URL resourceUrl = getClass().getClassLoader().getResource("locales");
             if (resourceUrl == null) {
@@ -47,25 +71,106 @@ public class MessageService {
                     throw new RuntimeException("Ошибка чтения файла: " + filename, e);
                 }
 
-                Locale locale = new Locale(langCode);
-                messages.put(locale, props);
+                files.put(new Locale(langCode), props);
             });
         } catch (Exception e) {
             throw new RuntimeException("Ошибка загрузки локализационных файлов", e);
         }
+
+        Properties defaults = files.get(defaultLocale);
+        if (defaults == null) {
+            throw new IllegalStateException("No messages for default locale " + defaultLocale + ", found " + files.keySet());
+        }
+        files.forEach((locale, props) -> messages.put(locale, compile(locale, props, defaults)));
+        defaultCatalog = messages.get(defaultLocale);
+    }
+
+    private static Catalog compile(Locale locale, Properties props, Properties defaults) {
+        String[] texts = new String[KEYS.length];
+        MessageFormat[] formats = new MessageFormat[KEYS.length];
+        for (MessageKey key : KEYS) {
+            String text = props.getProperty(key.key());
+            if (text == null) {
+                text = defaults.getProperty(key.key());
+                if (text != null) {
+                    log.warn("Message {} is missing for {}, using the default locale", key.key(), locale);
+                }
+            }
+            if (text == null) {
+                text = "???" + key.key() + "???";
+            }
+            texts[key.ordinal()] = text;
+            try {
+                formats[key.ordinal()] = new MessageFormat(text);
+            } catch (IllegalArgumentException e) {
+                // format() вернёт такой текст как есть
+                log.debug("Message {} for {} is not a valid MessageFormat pattern", key.key(), locale);
+            }
+        }
+        for (String name : props.stringPropertyNames()) {
+            if (MessageKey.byKey(name) == null) {
+                log.warn("Message {} for {} has no MessageKey and is ignored", name, locale);
+            }
+        }
+        return new Catalog(texts, formats, actions(locale, texts));
     }
 
-    public String get(String key, Locale locale) {
-        Properties props = messages.getOrDefault(locale, messages.get(Locale.getDefault()));
-        return props.getProperty(key, "???" + key + "???");
+    private static Map<String, InputAction> actions(Locale locale, String[] texts) {
+        Map<String, InputAction> actions = new HashMap<>();
+        for (InputAction action : ACTIONS) {
+            if (action.button() == null) {
+                continue;
+            }
+            InputAction previous = actions.putIfAbsent(texts[action.button().ordinal()], action);
+            if (previous != null) {
+                log.warn("Buttons {} and {} have the same text for {}, {} is unreachable",
+                        previous, action, locale, action);
+            }
+        }
+        return actions;
+    }
+
+    // Локаль обычно уже приведена LocaleResolver, иначе берётся каталог по умолчанию, а не локаль JVM
+    private Catalog catalog(Locale locale) {
+        Catalog catalog = messages.get(locale);
+        return catalog != null ? catalog : defaultCatalog;
+    }
+
+    public Set<Locale> getLocales() {
+        return messages.keySet();
     }
 
-    public String format(String key, Locale locale, Object... args) {
-        String pattern = get(key, locale);
+    public Locale getDefaultLocale() {
+        return defaultLocale;
+    }
+
+    public String get(MessageKey key, Locale locale) {
+        return catalog(locale).texts()[key.ordinal()];
+    }
+
+    /**
+     * Определяет кнопку по тексту сообщения одним обращением к индексу локали.
+     *
+     * @return действие кнопки или {@link InputAction#TEXT}, если текст не совпал ни с одной кнопкой
+     */
+    public InputAction resolve(String text, Locale locale) {
+        if (text == null) {
+            return InputAction.TEXT;
+        }
+        return catalog(locale).actions().getOrDefault(text, InputAction.TEXT);
+    }
+
+    public String format(MessageKey key, Locale locale, Object... args) {
+        Catalog catalog = catalog(locale);
+        MessageFormat format = catalog.formats()[key.ordinal()];
+        if (format == null) {
+            return catalog.texts()[key.ordinal()];
+        }
         try {
-            return MessageFormat.format(pattern, args);
+            // MessageFormat не потокобезопасен: копия дешевле повторного разбора шаблона
+            return ((MessageFormat) format.clone()).format(args);
         } catch (IllegalArgumentException | NullPointerException e) {
-            return pattern;
+            return catalog.texts()[key.ordinal()];
         }
     }
 }
@@ -0,0 +1,156 @@
+package nutrition.service;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Профили с заполненными параметрами, разложенные по примитивным столбцам, и расчёт по ним
+ * тех же {@link NutritionFormulas} сразу для всех строк.
+ */
+public final class NutritionColumns {
+
+    // Меньше этого параллельный обход дороже последовательного
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int CHUNK = 1 << 13;
+
+    private static final ActivityLevel[] ACTIVITIES = ActivityLevel.values();
+    // Коэффициенты по ordinal, чтобы не ветвиться на каждой строке
+    private static final double[] MULTIPLIERS = new double[ACTIVITIES.length];
+
+    static {
+        for (ActivityLevel activity : ACTIVITIES) {
+            MULTIPLIERS[activity.ordinal()] = NutritionFormulas.activityMultiplier(activity);
+        }
+    }
+
+    public enum Metric {
+        CALORIES, PROTEIN, FAT, CARBS, WATER, IRON
+    }
+
+    private final int size;
+    private final int[] ages;
+    private final int[] heights;
+    private final int[] weights;
+    private final boolean[] male;
+    private final byte[] activities;
+
+    private NutritionColumns(int size, int[] ages, int[] heights, int[] weights, boolean[] male, byte[] activities) {
+        this.size = size;
+        this.ages = ages;
+        this.heights = heights;
+        this.weights = weights;
+        this.male = male;
+        this.activities = activities;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Значения показателя для каждой строки, в порядке строк. Норма железа 0 означает, что для возраста её нет.
+     */
+    public double[] compute(Metric metric) {
+        double[] values = new double[size];
+        // Куски по CHUNK строк: внутри куска простой цикл, который JIT разворачивает лучше, чем лямбду на строку
+        int chunks = (size + CHUNK - 1) / CHUNK;
+        IntStream range = IntStream.range(0, chunks);
+        if (size >= PARALLEL_THRESHOLD) {
+            range = range.parallel();
+        }
+        range.forEach(chunk -> fill(metric, values, chunk * CHUNK, Math.min(size, (chunk + 1) * CHUNK)));
+        return values;
+    }
+
+    private void fill(Metric metric, double[] values, int from, int to) {
+        switch (metric) {
+            case CALORIES -> {
+                for (int i = from; i < to; i++) {
+                    values[i] = calories(i);
+                }
+            }
+            case PROTEIN -> {
+                for (int i = from; i < to; i++) {
+                    values[i] = NutritionFormulas.proteinGrams(calories(i));
+                }
+            }
+            case FAT -> {
+                for (int i = from; i < to; i++) {
+                    values[i] = NutritionFormulas.fatGrams(calories(i));
+                }
+            }
+            case CARBS -> {
+                for (int i = from; i < to; i++) {
+                    values[i] = NutritionFormulas.carbsGrams(calories(i));
+                }
+            }
+            case WATER -> {
+                for (int i = from; i < to; i++) {
+                    values[i] = NutritionFormulas.waterLiters(weights[i]);
+                }
+            }
+            case IRON -> {
+                for (int i = from; i < to; i++) {
+                    values[i] = NutritionFormulas.ironMilligrams(male[i], ages[i]);
+                }
+            }
+        }
+    }
+
+    private double calories(int row) {
+        return NutritionFormulas.bmr(male[row], weights[row], heights[row], ages[row]) * MULTIPLIERS[activities[row]];
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int size;
+        private int skipped;
+        private int[] ages = new int[1024];
+        private int[] heights = new int[1024];
+        private int[] weights = new int[1024];
+        private boolean[] male = new boolean[1024];
+        private byte[] activities = new byte[1024];
+
+        /**
+         * Добавляет профиль, если у него заполнены все параметры, иначе только считает его пропущенным.
+         */
+        public Builder add(User user) {
+            if (user.age() <= 0 || user.height() <= 0 || user.weight() <= 0
+                    || user.sex() == null || user.activityLevel() == null) {
+                skipped++;
+                return this;
+            }
+            if (size == ages.length) {
+                int capacity = size * 2;
+                ages = Arrays.copyOf(ages, capacity);
+                heights = Arrays.copyOf(heights, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                male = Arrays.copyOf(male, capacity);
+                activities = Arrays.copyOf(activities, capacity);
+            }
+            ages[size] = user.age();
+            heights[size] = user.height();
+            weights[size] = user.weight();
+            male[size] = user.sex() == Sex.MALE;
+            activities[size] = (byte) user.activityLevel().ordinal();
+            size++;
+            return this;
+        }
+
+        public int skipped() {
+            return skipped;
+        }
+
+        public NutritionColumns build() {
+            return new NutritionColumns(size, ages, heights, weights, male, activities);
+        }
+    }
+}
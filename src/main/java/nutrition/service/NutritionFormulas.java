@@ -0,0 +1,78 @@
+package nutrition.service;
+
+import nutrition.model.user.ActivityLevel;
+
+/**
+ * Формулы расчётов без форматирования и без обращения к профилю: только числа на входе и на выходе.
+ * Ими пользуются и ответы бота, и статистика по всем пользователям.
+ */
+public final class NutritionFormulas {
+
+    // Стандартное распределение БЖУ: 30% белки, 30% жиры, 40% углеводы
+    public static final double PROTEIN_SHARE = 0.3;
+    public static final double FAT_SHARE = 0.3;
+    public static final double CARBS_SHARE = 0.4;
+
+    // 1г белка/углеводов = 4 ккал, 1г жиров = 9 ккал
+    public static final double PROTEIN_KCAL_PER_GRAM = 4;
+    public static final double FAT_KCAL_PER_GRAM = 9;
+    public static final double CARBS_KCAL_PER_GRAM = 4;
+
+    private NutritionFormulas() {
+    }
+
+    /**
+     * Базовый обмен по формуле Миффлина-Сан Жеора.
+     */
+    public static double bmr(boolean male, int weight, int height, int age) {
+        return 10 * weight + 6.25 * height - 5 * age + (male ? 5 : -161);
+    }
+
+    public static double activityMultiplier(ActivityLevel activity) {
+        switch (activity) {
+            case SEDENTARY: return 1.2;
+            case LIGHT: return 1.375;
+            case MODERATE: return 1.55;
+            case ACTIVE: return 1.725;
+            case VERY_ACTIVE: return 1.9;
+            default: return 1.2;
+        }
+    }
+
+    public static double dailyCalories(boolean male, int weight, int height, int age, ActivityLevel activity) {
+        return bmr(male, weight, height, age) * activityMultiplier(activity);
+    }
+
+    public static double proteinGrams(double calories) {
+        return calories * PROTEIN_SHARE / PROTEIN_KCAL_PER_GRAM;
+    }
+
+    public static double fatGrams(double calories) {
+        return calories * FAT_SHARE / FAT_KCAL_PER_GRAM;
+    }
+
+    public static double carbsGrams(double calories) {
+        return calories * CARBS_SHARE / CARBS_KCAL_PER_GRAM;
+    }
+
+    // Рекомендуемое количество воды в литрах: вес * 0.03
+    public static double waterLiters(int weight) {
+        return weight * 0.03;
+    }
+
+    /**
+     * Рекомендуемая норма железа в миллиграммах, 0 - для возраста младше 14 лет.
+     */
+    public static int ironMilligrams(boolean male, int age) {
+        if (age >= 14 && age < 19) {
+            return male ? 11 : 15;
+        }
+        if (age >= 19 && age < 51) {
+            return male ? 8 : 18;
+        }
+        if (age >= 51) {
+            return 8;
+        }
+        return 0;
+    }
+}
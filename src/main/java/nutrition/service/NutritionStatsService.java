@@ -0,0 +1,119 @@
+package nutrition.service;
+
+import nutrition.service.NutritionColumns.Metric;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Распределение суточных норм по всем пользователям с заполненным профилем: перцентили и гистограммы.
+ * Профили один раз раскладываются в {@link NutritionColumns}, дальше всё считается линейными проходами по массивам.
+ */
+@Service
+public class NutritionStatsService {
+
+    private static final double[] PERCENTILES = {10, 25, 50, 75, 90, 99};
+    private static final int FINE_BINS = 4096;
+
+    private final UserService userService;
+
+    @Autowired
+    public NutritionStatsService(UserService userService) {
+        this.userService = userService;
+    }
+
+    public Map<String, Object> getStats(int buckets) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("buckets must be positive: " + buckets);
+        }
+        long started = System.nanoTime();
+        NutritionColumns.Builder builder = NutritionColumns.builder();
+        userService.forEachEntry(entry -> {
+            if (entry.user() != null) {
+                builder.add(entry.user());
+            }
+        });
+        NutritionColumns columns = builder.build();
+        long collected = System.nanoTime();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("users", columns.size());
+        stats.put("incompleteProfiles", builder.skipped());
+        for (Metric metric : Metric.values()) {
+            // Для младших 14 лет нормы железа нет, в распределение они не входят
+            boolean positiveOnly = metric == Metric.IRON;
+            stats.put(metric.name().toLowerCase(Locale.ROOT), distribution(columns.compute(metric), positiveOnly, buckets));
+        }
+        stats.put("collectMillis", (collected - started) / 1_000_000);
+        stats.put("computeMillis", (System.nanoTime() - collected) / 1_000_000);
+        return stats;
+    }
+
+    /**
+     * Два линейных прохода без сортировки: границы и среднее, затем мелкая гистограмма для перцентилей
+     * и гистограмма на {@code buckets} интервалов для ответа. Перцентили точны до (max - min) / {@link #FINE_BINS}.
+     */
+    private static Map<String, Object> distribution(double[] values, boolean positiveOnly, int buckets) {
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (double value : values) {
+            if (positiveOnly && value <= 0) {
+                continue;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", count);
+        if (count == 0) {
+            return result;
+        }
+
+        double range = max > min ? max - min : 1;
+        long[] fine = new long[FINE_BINS];
+        long[] counts = new long[max > min ? buckets : 1];
+        for (double value : values) {
+            if (positiveOnly && value <= 0) {
+                continue;
+            }
+            double position = (value - min) / range;
+            fine[Math.min(FINE_BINS - 1, (int) (position * FINE_BINS))]++;
+            counts[Math.min(counts.length - 1, (int) (position * counts.length))]++;
+        }
+
+        result.put("min", round(min));
+        result.put("max", round(max));
+        result.put("mean", round(sum / count));
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            // Метод ближайшего ранга: нижняя граница мелкого интервала, в который попадает ранг
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            int bin = 0;
+            long seen = fine[0];
+            while (seen < rank) {
+                bin++;
+                seen += fine[bin];
+            }
+            percentiles.put("p" + (int) percentile, round(min + range * bin / FINE_BINS));
+        }
+        result.put("percentiles", percentiles);
+
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        histogram.put("from", round(min));
+        histogram.put("width", round(range / counts.length));
+        histogram.put("counts", counts);
+        result.put("histogram", histogram);
+        return result;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
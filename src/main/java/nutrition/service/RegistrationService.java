@@ -2,291 +2,212 @@ package nutrition.service;
 
 import lombok.Setter;
 import nutrition.callback.NewUserCallback;
+import nutrition.model.message.InputAction;
+import nutrition.model.message.KeyboardType;
+import nutrition.model.message.MessageKey;
 import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
 import nutrition.model.user.RegistrationState;
 import nutrition.model.user.Sex;
 import nutrition.model.user.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.meta.api.methods.ParseMode;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Component
 public class RegistrationService {
 
+    private static final Map<ActivityLevel, MessageKey> ACTIVITY_TITLES = new EnumMap<>(Map.of(
+            ActivityLevel.SEDENTARY, MessageKey.PARAM_ACTIVITY_SEDENTARY,
+            ActivityLevel.LIGHT, MessageKey.PARAM_ACTIVITY_LIGHT,
+            ActivityLevel.MODERATE, MessageKey.PARAM_ACTIVITY_MODERATE,
+            ActivityLevel.ACTIVE, MessageKey.PARAM_ACTIVITY_ACTIVE,
+            ActivityLevel.VERY_ACTIVE, MessageKey.PARAM_ACTIVITY_VERY_ACTIVE));
+
     private final MessageService messageService;
     private final UserService userService;
     private final CalculationService calculationService;
+    private final ReplyTemplates replies;
     @Setter
     private NewUserCallback newUserCallback;
 
-    public SendMessage handleMessage(long chatId, String text, Locale locale) {
-        if ("/start".equals(text) || messageService.get("start", locale).equals(text)) {
-            return handleStart(chatId, locale);
-        }
-        if (messageService.get("menu.calculations", locale).equals(text)) {
-            return showCalculationMenu(chatId, locale);
-        }
-        RegistrationState userState = userService.getUserState(chatId);
-        User user = userService.getOrCreateUser(chatId);
-        return switch (userState) {
-            case START -> handleStartMenu(chatId, text, locale);
-            case ENTERING_SEX -> handleSexInput(chatId, text, user, locale);
-            case ENTERING_AGE -> handleAgeInput(chatId, text, user, locale);
-            case ENTERING_WEIGHT -> handleWeightInput(chatId, text, user, locale);
-            case ENTERING_HEIGHT -> handleHeightInput(chatId, text, user, locale);
-            case ENTERING_ACTIVITY -> handleActivityInput(chatId, text, user, locale);
-            case CALCULATION_MENU -> calculationService.handleCalculationMenu(chatId, text, locale);
-            default -> new SendMessage(String.valueOf(chatId), messageService.get("error.unknown_command", locale));
-        };
+    // Новая сессия чата и ответ на сообщение
+    private record Step(ChatSession session, SendMessage message) {
     }
 
-    private SendMessage handleStart(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.START);
-        if (!userService.exist(chatId)) {
-            userService.saveUser(new User(chatId));
-            if (newUserCallback != null) {
-                newUserCallback.onNewUser(chatId);
+    /**
+     * Читает сессию один раз, вычисляет ответ и новую сессию и записывает её одним compare-and-set.
+     * Если сессию успели изменить параллельно, сообщение обрабатывается заново по свежей сессии.
+     */
+    public SendMessage handleMessage(long chatId, String text, Locale locale) {
+        while (true) {
+            ChatSession stored = userService.getSession(chatId);
+            ChatSession session = stored != null ? stored : ChatSession.empty(chatId);
+            Step step = handle(session, text, locale);
+            if (step.session() == session || userService.compareAndSetSession(session, step.session())) {
+                if (session.user() == null && step.session().user() != null && newUserCallback != null) {
+                    newUserCallback.onNewUser(chatId);
+                }
+                return step.message();
             }
         }
-        String welcomeText = messageService.get("welcome", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), welcomeText);
-        message.setParseMode(ParseMode.MARKDOWN);
-
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-        keyboard.setOneTimeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-
-        KeyboardRow row1 = new KeyboardRow();
-        row1.add(messageService.get("menu.enter_params", locale));
-
-        KeyboardRow row2 = new KeyboardRow();
-        row2.add(messageService.get("menu.calculations", locale));
-
-        rows.add(row1);
-        rows.add(row2);
-
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
-
-        return message;
     }
 
-    private SendMessage handleStartMenu(long chatId, String text, Locale locale) {
-        if (messageService.get("menu.enter_params", locale).equals(text)) {
-            return askForSex(chatId, locale);
+    private Step handle(ChatSession session, String text, Locale locale) {
+        long chatId = session.chatId();
+        // Кнопка определяется один раз, дальше обработчики сравнивают только действие
+        InputAction action = messageService.resolve(text, locale);
+        if ("/start".equals(text) || action == InputAction.START) {
+            return handleStart(session, locale);
         }
-        if (messageService.get("menu.calculations", locale).equals(text)) {
-            return showCalculationMenu(chatId, locale);
+        if (action == InputAction.CALCULATIONS) {
+            return showCalculationMenu(session, locale);
         }
-        return new SendMessage(String.valueOf(chatId), messageService.get("error.unknown_command", locale));
+        return switch (session.state()) {
+            case START -> handleStartMenu(session, action, locale);
+            case ENTERING_SEX -> handleSexInput(session, action, locale);
+            case ENTERING_AGE -> handleAgeInput(session, text, action, locale);
+            case ENTERING_WEIGHT -> handleWeightInput(session, text, action, locale);
+            case ENTERING_HEIGHT -> handleHeightInput(session, text, action, locale);
+            case ENTERING_ACTIVITY -> handleActivityInput(session, action, locale);
+            case CALCULATION_MENU -> reply(session,
+                    calculationService.handleCalculationMenu(chatId, session.user(), action, locale));
+            default -> reply(session, replies.text(chatId, MessageKey.ERROR_UNKNOWN_COMMAND, locale));
+        };
     }
 
-    private SendMessage askForSex(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.ENTERING_SEX);
-        String text = messageService.get("param.sex.question", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), text);
-
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow sexRow = new KeyboardRow();
-        sexRow.add(messageService.get("param.sex.male", locale));
-        sexRow.add(messageService.get("param.sex.female", locale));
-
-        KeyboardRow navRow = new KeyboardRow();
-        navRow.add(messageService.get("navigation.skip", locale));
-        navRow.add(messageService.get("start", locale));
+    // Ответ без изменения сессии
+    private static Step reply(ChatSession session, SendMessage message) {
+        return new Step(session, message);
+    }
 
-        rows.add(sexRow);
-        rows.add(navRow);
+    private Step handleStart(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
+        session = session.withUser(session.userOrNew()).withState(RegistrationState.START);
+        SendMessage message = replies.markdown(chatId, MessageKey.WELCOME, KeyboardType.START, locale);
+        return new Step(session, message);
+    }
 
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
+    private Step handleStartMenu(ChatSession session, InputAction action, Locale locale) {
+        if (action == InputAction.ENTER_PARAMS) {
+            return askForSex(session, locale);
+        }
+        if (action == InputAction.CALCULATIONS) {
+            return showCalculationMenu(session, locale);
+        }
+        return reply(session, replies.text(session.chatId(), MessageKey.ERROR_UNKNOWN_COMMAND, locale));
+    }
 
-        return message;
+    private Step askForSex(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
+        SendMessage message = replies.text(chatId, MessageKey.PARAM_SEX_QUESTION, KeyboardType.SEX, locale);
+        return new Step(session.withState(RegistrationState.ENTERING_SEX), message);
     }
 
-    private SendMessage handleSexInput(long chatId, String text, User user, Locale locale) {
-        if (messageService.get("navigation.skip", locale).equals(text)) {
-            userService.saveUser(user);
-            return askForAge(chatId, locale);
+    private Step handleSexInput(ChatSession session, InputAction action, Locale locale) {
+        long chatId = session.chatId();
+        User user = session.userOrNew();
+        if (action == InputAction.SKIP) {
+            return askForAge(session.withUser(user), locale);
         }
-        if (messageService.get("param.sex.male", locale).equals(text)) {
-            userService.saveUser(user.withSex(Sex.MALE));
-        } else if (messageService.get("param.sex.female", locale).equals(text)) {
-            userService.saveUser(user.withSex(Sex.FEMALE));
+        if (action == InputAction.SEX_MALE) {
+            user = user.withSex(Sex.MALE);
+        } else if (action == InputAction.SEX_FEMALE) {
+            user = user.withSex(Sex.FEMALE);
         } else {
-            return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_sex", locale));
+            return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_SEX, locale));
         }
 
-        return askForAge(chatId, locale);
+        return askForAge(session.withUser(user), locale);
     }
 
-    private SendMessage askForAge(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.ENTERING_AGE);
-
-        String text = messageService.get("param.age.question", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), text);
-
-        setNavigationKeyboard(message, locale);
-        return message;
+    private Step askForAge(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
+        SendMessage message = replies.text(chatId, MessageKey.PARAM_AGE_QUESTION, KeyboardType.NAVIGATION, locale);
+        return new Step(session.withState(RegistrationState.ENTERING_AGE), message);
     }
 
-    private SendMessage handleAgeInput(long chatId, String text, User user, Locale locale) {
-        if (messageService.get("navigation.skip", locale).equals(text)) {
-            userService.saveUser(user);
-            return askForWeight(chatId, locale);
+    private Step handleAgeInput(ChatSession session, String text, InputAction action, Locale locale) {
+        long chatId = session.chatId();
+        User user = session.userOrNew();
+        if (action == InputAction.SKIP) {
+            return askForWeight(session.withUser(user), locale);
         }
 
-        if (messageService.get("navigation.back", locale).equals(text)) {
-            return askForSex(chatId, locale);
+        if (action == InputAction.BACK) {
+            return askForSex(session, locale);
         }
 
         try {
             int age = Integer.parseInt(text);
             if (age < 14) {
-                return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_age_range.young", locale));
+                return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_AGE_RANGE_YOUNG, locale));
             }
             if (age > 100) {
-                return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_age_range.old", locale));
+                return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_AGE_RANGE_OLD, locale));
             }
 
-            userService.saveUser(user.withAge(age));
-            return askForWeight(chatId, locale);
+            return askForWeight(session.withUser(user.withAge(age)), locale);
 
         } catch (NumberFormatException e) {
-            return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_number", locale));
+            return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_NUMBER, locale));
         }
     }
 
-    private SendMessage askForWeight(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.ENTERING_WEIGHT);
-
-        String text = messageService.get("param.weight.question", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), text);
-
-        // Создаем клавиатуру с популярными значениями веса
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-        keyboard.setOneTimeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-
-        int[] weightRanges = {40, 45, 50, 55, 60, 65, 70, 75, 80, 85, 90, 95, 100};
-
-        KeyboardRow currentRow = new KeyboardRow();
-        for (int weight : weightRanges) {
-            currentRow.add(weight + " " + messageService.get("metric.kg", locale));
-
-            if (currentRow.size() == 4) {
-                rows.add(currentRow);
-                currentRow = new KeyboardRow();
-            }
-        }
-
-        if (!currentRow.isEmpty()) {
-            rows.add(currentRow);
-        }
-
-        KeyboardRow navRow = new KeyboardRow();
-        navRow.add(messageService.get("navigation.skip", locale));
-        navRow.add(messageService.get("navigation.back", locale));
-        navRow.add(messageService.get("start", locale));
-        rows.add(navRow);
-
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
-
-        return message;
+    private Step askForWeight(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
+        SendMessage message = replies.text(chatId, MessageKey.PARAM_WEIGHT_QUESTION, KeyboardType.WEIGHT, locale);
+        return new Step(session.withState(RegistrationState.ENTERING_WEIGHT), message);
     }
 
-    private SendMessage handleWeightInput(long chatId, String text, User user, Locale locale) {
-        if (messageService.get("navigation.skip", locale).equals(text)) {
-            userService.saveUser(user);
-            return askForHeight(chatId, locale);
+    private Step handleWeightInput(ChatSession session, String text, InputAction action, Locale locale) {
+        long chatId = session.chatId();
+        User user = session.userOrNew();
+        if (action == InputAction.SKIP) {
+            return askForHeight(session.withUser(user), locale);
         }
 
-        if (messageService.get("navigation.back", locale).equals(text)) {
-            return askForAge(chatId, locale);
+        if (action == InputAction.BACK) {
+            return askForAge(session, locale);
         }
 
         try {
             String weightText = text.replaceAll("[^0-9]", "");
             int weight = Integer.parseInt(weightText);
             if (weight < 30) {
-                return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_weight_range.low", locale));
+                return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_WEIGHT_RANGE_LOW, locale));
             }
             if (weight > 250) {
-                return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_weight_range.high", locale));
+                return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_WEIGHT_RANGE_HIGH, locale));
             }
 
-            userService.saveUser(user.withWeight(weight));
-            return askForHeight(chatId, locale);
+            return askForHeight(session.withUser(user.withWeight(weight)), locale);
 
         } catch (NumberFormatException e) {
-            return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_number", locale));
+            return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_NUMBER, locale));
         }
     }
 
-    private SendMessage askForHeight(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.ENTERING_HEIGHT);
-
-        String text = messageService.get("param.height.question", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), text);
-
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-        keyboard.setOneTimeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-
-        int[] heightRanges = {140, 145, 150, 155, 160, 165, 170, 175, 180, 185, 190, 195, 200};
-
-        KeyboardRow currentRow = new KeyboardRow();
-        for (int height : heightRanges) {
-            currentRow.add(height + " " + messageService.get("metric.sm", locale));
-
-            if (currentRow.size() == 4) {
-                rows.add(currentRow);
-                currentRow = new KeyboardRow();
-            }
-        }
-
-        if (!currentRow.isEmpty()) {
-            rows.add(currentRow);
-        }
-
-        KeyboardRow navRow = new KeyboardRow();
-        navRow.add(messageService.get("navigation.skip", locale));
-        navRow.add(messageService.get("navigation.back", locale));
-        navRow.add(messageService.get("start", locale));
-        rows.add(navRow);
-
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
-
-        return message;
+    private Step askForHeight(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
+        SendMessage message = replies.text(chatId, MessageKey.PARAM_HEIGHT_QUESTION, KeyboardType.HEIGHT, locale);
+        return new Step(session.withState(RegistrationState.ENTERING_HEIGHT), message);
     }
 
-    private SendMessage handleHeightInput(long chatId, String text, User user, Locale locale) {
-        if (messageService.get("navigation.skip", locale).equals(text)) {
-            userService.saveUser(user);
-            return askForActivity(chatId, locale);
+    private Step handleHeightInput(ChatSession session, String text, InputAction action, Locale locale) {
+        long chatId = session.chatId();
+        User user = session.userOrNew();
+        if (action == InputAction.SKIP) {
+            return askForActivity(session.withUser(user), locale);
         }
 
-        if (messageService.get("navigation.back", locale).equals(text)) {
-            return askForWeight(chatId, locale);
+        if (action == InputAction.BACK) {
+            return askForWeight(session, locale);
         }
 
         try {
@@ -294,194 +215,111 @@ public class RegistrationService {
             int height = Integer.parseInt(heightText);
 
             if (height < 130 || height > 220) {
-                return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_height_range", locale));
+                return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_HEIGHT_RANGE, locale));
             }
 
-            userService.saveUser(user.withHeight(height));
-            return askForActivity(chatId, locale);
+            return askForActivity(session.withUser(user.withHeight(height)), locale);
 
         } catch (NumberFormatException e) {
-            return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_number", locale));
+            return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_NUMBER, locale));
         }
     }
 
-    private SendMessage askForActivity(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.ENTERING_ACTIVITY);
-
-        String text = messageService.get("param.activity.question", locale);
-        SendMessage message = new SendMessage(String.valueOf(chatId), text);
-
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-
-        KeyboardRow row1 = new KeyboardRow();
-        row1.add(messageService.get("param.activity.sedentary", locale));
-        row1.add(messageService.get("param.activity.light", locale));
-
-        KeyboardRow row2 = new KeyboardRow();
-        row2.add(messageService.get("param.activity.moderate", locale));
-        row2.add(messageService.get("param.activity.active", locale));
-
-        KeyboardRow row3 = new KeyboardRow();
-        row3.add(messageService.get("param.activity.very_active", locale));
-
-        KeyboardRow navRow = new KeyboardRow();
-        navRow.add(messageService.get("navigation.skip", locale));
-        navRow.add(messageService.get("navigation.back", locale));
-        navRow.add(messageService.get("start", locale));
-
-        rows.add(row1);
-        rows.add(row2);
-        rows.add(row3);
-        rows.add(navRow);
-
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
-
-        return message;
+    private Step askForActivity(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
+        SendMessage message = replies.text(chatId, MessageKey.PARAM_ACTIVITY_QUESTION, KeyboardType.ACTIVITY, locale);
+        return new Step(session.withState(RegistrationState.ENTERING_ACTIVITY), message);
     }
 
-    private SendMessage handleActivityInput(long chatId, String text, User user, Locale locale) {
-        if (messageService.get("navigation.skip", locale).equals(text)) {
-            userService.saveUser(user);
-            return showCalculationMenu(chatId, locale);
+    private Step handleActivityInput(ChatSession session, InputAction action, Locale locale) {
+        long chatId = session.chatId();
+        User user = session.userOrNew();
+        if (action == InputAction.SKIP) {
+            return showCalculationMenu(session.withUser(user), locale);
         }
 
-        if (messageService.get("navigation.back", locale).equals(text)) {
-            return askForHeight(chatId, locale);
+        if (action == InputAction.BACK) {
+            return askForHeight(session, locale);
         }
 
-        ActivityLevel activity = mapTextToActivity(text, locale);
+        ActivityLevel activity = activityFor(action);
         if (activity != null) {
-            userService.saveUser(user.withActivity(activity));
-            return showCalculationMenu(chatId, locale);
+            return showCalculationMenu(session.withUser(user.withActivity(activity)), locale);
         } else {
-            return new SendMessage(String.valueOf(chatId), messageService.get("error.invalid_activity", locale));
+            return reply(session, replies.text(chatId, MessageKey.ERROR_INVALID_ACTIVITY, locale));
         }
     }
 
-    private SendMessage showCalculationMenu(long chatId, Locale locale) {
-        userService.setUserState(chatId, RegistrationState.CALCULATION_MENU);
+    private Step showCalculationMenu(ChatSession session, Locale locale) {
+        long chatId = session.chatId();
 
-        User user = userService.getUser(chatId);
+        User user = session.user();
         String summary = buildUserSummary(user, locale);
-        String menuText = summary + "\n\n" + messageService.get("calculation.menu.title", locale);
-
-        SendMessage message = new SendMessage(String.valueOf(chatId), menuText);
-        message.setParseMode(ParseMode.MARKDOWN);
-
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
+        String menuText = summary + "\n\n" + messageService.get(MessageKey.CALCULATION_MENU_TITLE, locale);
 
-        // Получаем опции вычислений
-        List<String> calculationOptions = calculationService.getOptions().stream()
-                .map(option -> messageService.get("calculation." + option.toLowerCase(), locale))
-                .toList();
+        // Опции расчётов по 2 в ряд, редактирование параметров и возврат в главное меню
+        SendMessage message = replies.markdown(chatId, menuText, KeyboardType.OPTIONS, locale);
 
-        // Распределяем опции по рядам (по 2 кнопки в ряду)
-        KeyboardRow currentRow = new KeyboardRow();
-        for (String option : calculationOptions) {
-            currentRow.add(option);
-
-            if (currentRow.size() == 2) {
-                rows.add(currentRow);
-                currentRow = new KeyboardRow();
-            }
-        }
-
-        // Добавляем последний неполный ряд с опциями
-        if (!currentRow.isEmpty()) {
-            rows.add(currentRow);
-        }
-
-        // Ряд с кнопкой редактирования параметров
-        KeyboardRow editRow = new KeyboardRow();
-        editRow.add(messageService.get("menu.edit_params", locale));
-        rows.add(editRow);
-
-        // Навигационный ряд
-        KeyboardRow navRow = new KeyboardRow();
-        navRow.add(messageService.get("start", locale));
-        rows.add(navRow);
-
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
-
-        return message;
+        return new Step(session.withState(RegistrationState.CALCULATION_MENU), message);
     }
 
-    // Вспомогательный метод остается без изменений
-    private ActivityLevel mapTextToActivity(String text, Locale locale) {
-        if (messageService.get("param.activity.sedentary", locale).equals(text)) return ActivityLevel.SEDENTARY;
-        if (messageService.get("param.activity.light", locale).equals(text)) return ActivityLevel.LIGHT;
-        if (messageService.get("param.activity.moderate", locale).equals(text)) return ActivityLevel.MODERATE;
-        if (messageService.get("param.activity.active", locale).equals(text)) return ActivityLevel.ACTIVE;
-        if (messageService.get("param.activity.very_active", locale).equals(text)) return ActivityLevel.VERY_ACTIVE;
-        return null;
+    private static ActivityLevel activityFor(InputAction action) {
+        return switch (action) {
+            case ACTIVITY_SEDENTARY -> ActivityLevel.SEDENTARY;
+            case ACTIVITY_LIGHT -> ActivityLevel.LIGHT;
+            case ACTIVITY_MODERATE -> ActivityLevel.MODERATE;
+            case ACTIVITY_ACTIVE -> ActivityLevel.ACTIVE;
+            case ACTIVITY_VERY_ACTIVE -> ActivityLevel.VERY_ACTIVE;
+            default -> null;
+        };
     }
 
     private String buildUserSummary(User user, Locale locale) {
         StringBuilder sb = new StringBuilder();
-        sb.append(messageService.get("summary.title", locale)).append("\n");
+        sb.append(messageService.get(MessageKey.SUMMARY_TITLE, locale)).append("\n");
 
         if (user.sex() != null) {
-            sb.append("• ").append(messageService.get("param.sex.title", locale))
+            sb.append("• ").append(messageService.get(MessageKey.PARAM_SEX_TITLE, locale))
                     .append(": ").append(messageService.get(
-                            user.sex() == Sex.MALE ? "param.sex.male" : "param.sex.female", locale))
+                            user.sex() == Sex.MALE ? MessageKey.PARAM_SEX_MALE : MessageKey.PARAM_SEX_FEMALE, locale))
                     .append("\n");
         }
 
         if (user.age() != 0) {
-            sb.append("• ").append(messageService.get("param.age.title", locale))
+            sb.append("• ").append(messageService.get(MessageKey.PARAM_AGE_TITLE, locale))
                     .append(": ").append(user.age()).append("\n");
         }
 
         if (user.weight() != 0) {
-            sb.append("• ").append(messageService.get("param.weight.title", locale))
-                    .append(": ").append(user.weight()).append(" ").append(messageService.get("metric.kg", locale)).append("\n");
+            sb.append("• ").append(messageService.get(MessageKey.PARAM_WEIGHT_TITLE, locale))
+                    .append(": ").append(user.weight()).append(" ").append(messageService.get(MessageKey.METRIC_KG, locale)).append("\n");
         }
 
         if (user.height() != 0) {
-            sb.append("• ").append(messageService.get("param.height.title", locale))
-                    .append(": ").append(user.height()).append(" ").append(messageService.get("metric.sm", locale)).append("\n");
+            sb.append("• ").append(messageService.get(MessageKey.PARAM_HEIGHT_TITLE, locale))
+                    .append(": ").append(user.height()).append(" ").append(messageService.get(MessageKey.METRIC_SM, locale)).append("\n");
         }
 
         if (user.activityLevel() != null) {
-            sb.append("• ").append(messageService.get("param.activity.title", locale))
-                    .append(": ").append(messageService.get("param.activity." + user.activityLevel().name().toLowerCase(), locale))
+            sb.append("• ").append(messageService.get(MessageKey.PARAM_ACTIVITY_TITLE, locale))
+                    .append(": ").append(messageService.get(ACTIVITY_TITLES.get(user.activityLevel()), locale))
                     .append("\n");
         }
 
         return sb.toString();
     }
 
-    private void setNavigationKeyboard(SendMessage message, Locale locale) {
-        ReplyKeyboardMarkup keyboard = new ReplyKeyboardMarkup();
-        keyboard.setResizeKeyboard(true);
-
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow navRow = new KeyboardRow();
-        navRow.add(messageService.get("navigation.skip", locale));
-        navRow.add(messageService.get("navigation.back", locale));
-        navRow.add(messageService.get("start", locale));
-
-        rows.add(navRow);
-        keyboard.setKeyboard(rows);
-        message.setReplyMarkup(keyboard);
-    }
-
-    public List<User> getAllUsers() {
-        return userService.getAllUsers();
+    // Короткий ответ при перегрузке, без обращения к хранилищу
+    public SendMessage busyReply(long chatId, Locale locale) {
+        return replies.text(chatId, MessageKey.ERROR_BUSY, locale);
     }
 
     @Autowired
-    public RegistrationService(MessageService messageService, UserService userService, CalculationService calculationService) {
+    public RegistrationService(MessageService messageService, UserService userService, CalculationService calculationService,
+                               ReplyTemplates replies) {
         this.messageService = messageService;
         this.userService = userService;
         this.calculationService = calculationService;
+        this.replies = replies;
     }
 }
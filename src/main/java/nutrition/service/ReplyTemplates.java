@@ -0,0 +1,147 @@
+package nutrition.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import nutrition.model.message.JsonTemplate;
+import nutrition.model.message.KeyboardType;
+import nutrition.model.message.MessageKey;
+import nutrition.model.message.PreparedMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.ParseMode;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ответы, сериализованные в JSON заранее: на каждую локаль и сочетание текста, клавиатуры и разметки.
+ * <p>
+ * Статический ответ (текст из каталога) рендерится при первом использовании и дальше только
+ * склеивается с chat_id. У ответа с вычисленным текстом заранее готово всё, кроме chat_id и текста.
+ */
+@Component
+public class ReplyTemplates {
+
+    private static final String CHAT_MARKER = "@@CHAT_ID@@";
+    private static final String TEXT_MARKER = "@@TEXT@@";
+
+    private static final MessageKey[] KEYS = MessageKey.values();
+    private static final KeyboardType[] KEYBOARDS = KeyboardType.values();
+    // Без клавиатуры + каждая клавиатура, каждая без разметки и с Markdown
+    private static final int VARIANTS = (KEYBOARDS.length + 1) * 2;
+
+    // Сериализует так же, как DefaultAbsSender в telegrambots
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MessageService messageService;
+    private final KeyboardRegistry keyboards;
+    private final Map<Locale, LocaleTemplates> templates = new HashMap<>();
+
+    private record LocaleTemplates(AtomicReferenceArray<JsonTemplate> fixed, JsonTemplate[] computed) {
+    }
+
+    @Autowired
+    public ReplyTemplates(MessageService messageService, KeyboardRegistry keyboards) {
+        this.messageService = messageService;
+        this.keyboards = keyboards;
+    }
+
+    @PostConstruct
+    public void build() {
+        for (Locale locale : messageService.getLocales()) {
+            JsonTemplate[] computed = new JsonTemplate[VARIANTS];
+            for (int variant = 0; variant < VARIANTS; variant++) {
+                computed[variant] = render(TEXT_MARKER, keyboard(variant), markdown(variant), locale, TEXT_MARKER);
+            }
+            templates.put(locale, new LocaleTemplates(new AtomicReferenceArray<>(KEYS.length * VARIANTS), computed));
+        }
+    }
+
+    /**
+     * Ответ текстом из каталога без разметки.
+     *
+     * @param keyboard клавиатура или null
+     */
+    public SendMessage text(long chatId, MessageKey key, KeyboardType keyboard, Locale locale) {
+        return fixed(chatId, key, keyboard, false, locale);
+    }
+
+    public SendMessage text(long chatId, MessageKey key, Locale locale) {
+        return fixed(chatId, key, null, false, locale);
+    }
+
+    /**
+     * Ответ текстом из каталога в Markdown.
+     */
+    public SendMessage markdown(long chatId, MessageKey key, KeyboardType keyboard, Locale locale) {
+        return fixed(chatId, key, keyboard, true, locale);
+    }
+
+    /**
+     * Ответ вычисленным текстом в Markdown, например с параметрами пользователя.
+     */
+    public SendMessage markdown(long chatId, String text, KeyboardType keyboard, Locale locale) {
+        int variant = variant(keyboard, true);
+        return prepare(chatId, text, keyboard, true, locale, forLocale(locale).computed()[variant]);
+    }
+
+    private SendMessage fixed(long chatId, MessageKey key, KeyboardType keyboard, boolean markdown, Locale locale) {
+        LocaleTemplates localeTemplates = forLocale(locale);
+        int index = key.ordinal() * VARIANTS + variant(keyboard, markdown);
+        String text = messageService.get(key, locale);
+        JsonTemplate template = localeTemplates.fixed().get(index);
+        if (template == null) {
+            // Гонка безвредна: оба потока получат одинаковый шаблон
+            template = render(text, keyboard, markdown, locale, null);
+            localeTemplates.fixed().set(index, template);
+        }
+        return prepare(chatId, text, keyboard, markdown, locale, template);
+    }
+
+    private SendMessage prepare(long chatId, String text, KeyboardType keyboard, boolean markdown, Locale locale,
+                                JsonTemplate template) {
+        PreparedMessage message = new PreparedMessage(String.valueOf(chatId), text, template);
+        fill(message, keyboard, markdown, locale);
+        return message;
+    }
+
+    private JsonTemplate render(String text, KeyboardType keyboard, boolean markdown, Locale locale, String textMarker) {
+        SendMessage message = new SendMessage(CHAT_MARKER, text);
+        fill(message, keyboard, markdown, locale);
+        try {
+            return JsonTemplate.of(objectMapper.writeValueAsString(message), CHAT_MARKER, textMarker);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to render reply template", e);
+        }
+    }
+
+    private void fill(SendMessage message, KeyboardType keyboard, boolean markdown, Locale locale) {
+        if (markdown) {
+            message.setParseMode(ParseMode.MARKDOWN);
+        }
+        if (keyboard != null) {
+            message.setReplyMarkup(keyboards.get(keyboard, locale));
+        }
+    }
+
+    private LocaleTemplates forLocale(Locale locale) {
+        LocaleTemplates localeTemplates = templates.get(locale);
+        return localeTemplates != null ? localeTemplates : templates.get(messageService.getDefaultLocale());
+    }
+
+    private static int variant(KeyboardType keyboard, boolean markdown) {
+        return (keyboard != null ? keyboard.ordinal() + 1 : 0) * 2 + (markdown ? 1 : 0);
+    }
+
+    private static KeyboardType keyboard(int variant) {
+        int keyboard = variant / 2;
+        return keyboard == 0 ? null : KEYBOARDS[keyboard - 1];
+    }
+
+    private static boolean markdown(int variant) {
+        return variant % 2 == 1;
+    }
+}
@@ -0,0 +1,40 @@
+package nutrition.service;
+
+import nutrition.model.user.ChatSession;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Переводит изменение сессии в функцию обновления хранилища: хранилище передаёт null для неизвестного чата,
+ * а изменение получает пустую сессию. Если изменение вернуло ту же сессию, хранилищу возвращается
+ * исходная запись, и оно ничего не пишет. Результат перезаписывается при каждом вызове,
+ * так что после повторов он соответствует последнему, записанному хранилищем.
+ */
+final class SessionUpdate implements UnaryOperator<ChatSession> {
+
+    private final long chatId;
+    private final UnaryOperator<ChatSession> function;
+    private ChatSession result;
+    private boolean changed;
+
+    SessionUpdate(long chatId, UnaryOperator<ChatSession> function) {
+        this.chatId = chatId;
+        this.function = function;
+    }
+
+    @Override
+    public ChatSession apply(ChatSession stored) {
+        ChatSession current = stored != null ? stored : ChatSession.empty(chatId);
+        result = function.apply(current);
+        changed = result != current;
+        return changed ? result : stored;
+    }
+
+    ChatSession result() {
+        return result;
+    }
+
+    boolean changed() {
+        return changed;
+    }
+}
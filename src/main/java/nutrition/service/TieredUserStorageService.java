@@ -0,0 +1,200 @@
+package nutrition.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.User;
+import nutrition.storage.EntryCache;
+import nutrition.storage.JsonSnapshot;
+import nutrition.storage.JsonStoreFiles;
+import nutrition.storage.MappedUserStore;
+import nutrition.storage.SnapshotCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Хранилище из двух уровней: ограниченный кэш активных чатов в куче и файл с фиксированными слотами на диске.
+ * <p>
+ * Запись идёт сквозь кэш сразу в файл, поэтому вытеснение ничего не сохраняет, а просто освобождает память.
+ * Промах кэша подгружает запись из файла. Файл тот же, что у {@code storage.type=mapped}.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "storage.type", havingValue = "tiered")
+public class TieredUserStorageService implements UserService {
+
+    @Value("${storage.data-path:./data}")
+    private String dataPath;
+
+    @Value("${storage.mapped.filename:bot-users.dat}")
+    private String filename;
+
+    // json-хранилище, из которого импортируются пользователи при первом запуске
+    @Value("${storage.filename:bot-users.json}")
+    private String jsonFilename;
+
+    @Value("${storage.snapshot.format:compact}")
+    private String snapshotFormat;
+
+    @Value("${storage.mapped.initial-capacity:65536}")
+    private int initialCapacity;
+
+    @Value("${storage.mapped.force-interval-ms:1000}")
+    private long forceIntervalMs;
+
+    @Value("${storage.cache.policy:tinylfu}")
+    private String cachePolicy;
+
+    @Value("${storage.cache.size:10000}")
+    private int cacheSize;
+
+    private MappedUserStore store;
+    private ScheduledExecutorService scheduler;
+    private EntryCache cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        Path dir = Paths.get(dataPath);
+        try {
+            Files.createDirectories(dir);
+            Path storeFile = dir.resolve(filename);
+            Path importMarker = JsonStoreFiles.importMarker(dir, filename);
+            // Маркер ставится до создания файла, так что прерванный импорт повторится при следующем запуске
+            if (!Files.exists(storeFile)) {
+                JsonStoreFiles.startImport(importMarker);
+            }
+            this.store = MappedUserStore.open(storeFile, initialCapacity);
+            this.cache = EntryCache.create(cachePolicy, cacheSize);
+            log.info("Tiered storage {} opened with {} records, {} cache for {} chats",
+                    storeFile.toAbsolutePath(), store.size(), cachePolicy, cacheSize);
+
+            if (Files.exists(importMarker)) {
+                importJson(dir, importMarker);
+            }
+        } catch (IOException e) {
+            log.error("Failed to initialize storage", e);
+            throw new RuntimeException("Storage initialization failed", e);
+        }
+
+        // Без этого изменения доходят до диска только когда ОС сама сбросит page cache
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::forceQuietly, forceIntervalMs, forceIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Забирает всё json-хранилище: шарды любой раскладки с дельтами и журналом
+    private void importJson(Path dir, Path importMarker) throws IOException {
+        SnapshotCodec snapshot = new SnapshotCodec(new JsonSnapshot(new ObjectMapper()), snapshotFormat);
+        JsonStoreFiles.read(dir, jsonFilename, snapshot, entry -> updateSession(entry.chatId(), session -> entry));
+        store.force();
+        JsonStoreFiles.finishImport(importMarker);
+        log.info("Imported json storage from {}, {} records", dir, store.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        store.close();
+    }
+
+    private void forceQuietly() {
+        try {
+            store.force();
+        } catch (Exception e) {
+            log.error("Failed to force storage to disk", e);
+        }
+    }
+
+    @Override
+    public ChatSession getSession(long chatId) {
+        return load(chatId);
+    }
+
+    @Override
+    public ChatSession updateSession(long chatId, UnaryOperator<ChatSession> function) {
+        SessionUpdate update = new SessionUpdate(chatId, function);
+        update(chatId, update);
+        return update.result();
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>(store.size());
+        store.forEach(entry -> {
+            if (entry.user() != null) {
+                users.add(entry.user());
+            }
+        });
+        return users;
+    }
+
+    @Override
+    public void forEachEntry(Consumer<ChatSession> consumer) {
+        store.forEach(consumer);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chats", store.size());
+        stats.put("cachePolicy", cachePolicy);
+        stats.put("cacheCapacity", cacheSize);
+        stats.put("cachedChats", cache.size());
+        stats.put("cacheHits", hits.sum());
+        stats.put("cacheMisses", misses.sum());
+        stats.put("cacheEvictions", cache.evictions());
+        return stats;
+    }
+
+    private ChatSession load(long chatId) {
+        ChatSession cached = cache.get(chatId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        // Кладём в кэш под блокировкой чтения файла, чтобы не затереть запись параллельного обновления
+        return store.read(chatId, entry -> {
+            if (entry != null) {
+                cache.putIfAbsent(entry);
+            }
+            return entry;
+        });
+    }
+
+    private ChatSession update(long chatId, UnaryOperator<ChatSession> function) {
+        try {
+            return store.update(chatId, function, written -> {
+                // Удалённый чат не держим в кэше пустой записью
+                if (written.user() == null && written.state() == null) {
+                    cache.invalidate(chatId);
+                } else {
+                    cache.put(written);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update chat " + chatId, e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package nutrition.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Выгрузка всех чатов в сжатый NDJSON: одна сессия на строку, записи пишутся по мере обхода хранилища,
+ * поэтому память не зависит от числа пользователей.
+ */
+@Service
+@Slf4j
+public class UserExportService {
+
+    public record Export(Path file, long chats) {
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public UserExportService(UserService userService, ObjectMapper objectMapper) {
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Пишет выгрузку во временный файл {@code bot-users-*.ndjson.gz}. Удалить его должен вызывающий.
+     */
+    public Export export() throws IOException {
+        long start = System.nanoTime();
+        Path file = Files.createTempFile("bot-users-", ".ndjson.gz");
+        long[] count = {0};
+        try (OutputStream out = new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+             SequenceWriter writer = objectMapper.writerFor(ChatSession.class)
+                     .without(SerializationFeature.INDENT_OUTPUT)
+                     .withRootValueSeparator("\n")
+                     .writeValues(out)) {
+            userService.forEachEntry(entry -> {
+                try {
+                    writer.write(entry);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(file);
+            throw e instanceof UncheckedIOException unchecked ? unchecked.getCause() : (IOException) e;
+        }
+        log.info("Exported {} chats to {} ({} bytes) in {} ms", count[0], file, Files.size(file),
+                (System.nanoTime() - start) / 1_000_000);
+        return new Export(file, count[0]);
+    }
+}
@@ -1,21 +1,120 @@
 package nutrition.service;
 
+import nutrition.model.user.ChatSession;
 import nutrition.model.user.RegistrationState;
 import nutrition.model.user.User;
+import nutrition.model.user.UserQuery;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 public interface UserService {
 
-    User getUser(long chatId);
-    User getOrCreateUser(long chatId);
-    void saveUser(User user);
-    RegistrationState getUserState(long chatId);
-    void setUserState(long chatId, RegistrationState state);
-    boolean exist(long chatId);
+    // Профиль и состояние чата одним чтением, null для неизвестного чата
+    ChatSession getSession(long chatId);
+
+    /**
+     * Атомарно меняет сессию чата. Функция получает текущую сессию (пустую для неизвестного чата);
+     * если она вернёт ту же сессию, ничего не записывается.
+     * <p>
+     * Функция может быть вызвана несколько раз (хранилище повторяет её, если сессию изменили параллельно),
+     * поэтому она не должна иметь побочных эффектов. Если нужно что-то вынести наружу, значение
+     * перезаписывается на каждом вызове: в силе остаётся последний.
+     *
+     * @return сессия после изменения
+     */
+    ChatSession updateSession(long chatId, UnaryOperator<ChatSession> function);
+
+    /**
+     * Записывает {@code updated}, только если сессия в хранилище всё ещё равна {@code expected}.
+     * Для неизвестного чата ожидаемая сессия - пустая.
+     */
+    default boolean compareAndSetSession(ChatSession expected, ChatSession updated) {
+        boolean[] committed = {false};
+        // Флаг пишется на каждом вызове: функция может повториться
+        updateSession(expected.chatId(), current -> {
+            committed[0] = current.equals(expected);
+            return committed[0] ? updated : current;
+        });
+        return committed[0];
+    }
+
+    default User getUser(long chatId) {
+        ChatSession session = getSession(chatId);
+        return session != null ? session.user() : null;
+    }
+
+    default User getOrCreateUser(long chatId) {
+        User user = getUser(chatId);
+        return user != null ? user : new User(chatId);
+    }
+
+    default void saveUser(User user) {
+        updateSession(user.chatId(), session -> session.withUser(user));
+    }
+
+    default RegistrationState getUserState(long chatId) {
+        ChatSession session = getSession(chatId);
+        return session != null ? session.state() : null;
+    }
+
+    default void setUserState(long chatId, RegistrationState state) {
+        updateSession(chatId, session -> session.withState(state));
+    }
+
+    default boolean exist(long chatId) {
+        return getUser(chatId) != null;
+    }
 
     List<User> getAllUsers();
 
-    User delete(Long chatId);
+    // Обход всех чатов без копирования, в том числе без профиля
+    void forEachEntry(Consumer<ChatSession> consumer);
+
+    // Выборка с фильтром и страницей; хранилища с индексами переопределяют её запросом
+    default List<User> findUsers(UserQuery query) {
+        List<User> users = new ArrayList<>();
+        int[] skipped = {0};
+        forEachEntry(entry -> {
+            User user = entry.user();
+            if (user == null || users.size() >= query.limit() || !query.matches(user)) {
+                return;
+            }
+            if (skipped[0] < query.offset()) {
+                skipped[0]++;
+            } else {
+                users.add(user);
+            }
+        });
+        return users;
+    }
+
+    default long countUsers(UserQuery query) {
+        long[] count = {0};
+        forEachEntry(entry -> {
+            if (entry.user() != null && query.matches(entry.user())) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    // Метрики хранилища для админки
+    default Map<String, Object> getStats() {
+        return Map.of();
+    }
+
+    // Удаляет профиль, состояние регистрации остаётся
+    default User delete(Long chatId) {
+        User[] removed = {null};
+        // Как и флаг в compareAndSetSession, перезаписывается на каждом вызове функции
+        updateSession(chatId, session -> {
+            removed[0] = session.user();
+            return session.user() != null ? session.withUser(null) : session;
+        });
+        return removed[0];
+    }
 }
@@ -0,0 +1,174 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Двоичный снапшот пользователей, сжатый Deflater.
+ * <p>
+ * После 4-байтной сигнатуры идут сжатые записи: флаги (0 - конец), разность chatId с предыдущей записью
+ * в zigzag-varint, затем профиль (порядковые номера enum + 1 и varint-числа) и состояние.
+ * В конце - число записей для проверки целостности. Профиль и состояние чата лежат в одной записи,
+ * поэтому источник обходится один раз. Новые значения enum можно добавлять только в конец.
+ */
+public class CompactSnapshot {
+
+    static final int MAGIC = 0x4E425331;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HAS_USER = 1;
+    private static final int HAS_STATE = 2;
+
+    private static final Sex[] SEXES = Sex.values();
+    private static final ActivityLevel[] ACTIVITIES = ActivityLevel.values();
+    private static final RegistrationState[] STATES = RegistrationState.values();
+
+    public void read(InputStream in, Consumer<User> users, ObjLongConsumer<RegistrationState> states) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a compact snapshot");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            InputStream data = new BufferedInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE), BUFFER_SIZE);
+            long chatId = 0;
+            long count = 0;
+            int flags;
+            while ((flags = readByte(data)) != 0) {
+                chatId += zigzagDecode(readVarLong(data));
+                if ((flags & HAS_USER) != 0) {
+                    Sex sex = decode(SEXES, readByte(data));
+                    ActivityLevel activity = decode(ACTIVITIES, readByte(data));
+                    int age = (int) zigzagDecode(readVarLong(data));
+                    int height = (int) zigzagDecode(readVarLong(data));
+                    int weight = (int) zigzagDecode(readVarLong(data));
+                    users.accept(new User(chatId, age, height, weight, sex, activity));
+                }
+                if ((flags & HAS_STATE) != 0) {
+                    states.accept(decode(STATES, readByte(data)), chatId);
+                }
+                count++;
+            }
+            long expected = readVarLong(data);
+            if (expected != count) {
+                throw new IOException("Snapshot has " + count + " records, trailer says " + expected);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Пишет снапшот в поток, не закрывая его.
+     */
+    public void write(OutputStream out, JsonSnapshot.EntrySource source) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.flush();
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            OutputStream data = new BufferedOutputStream(compressed, BUFFER_SIZE);
+            long[] last = {0, 0};
+            JsonSnapshot.forEach(source, entry -> {
+                if (writeEntry(data, entry, last[0])) {
+                    last[0] = entry.chatId();
+                    last[1]++;
+                }
+            });
+            data.write(0);
+            writeVarLong(data, last[1]);
+            data.flush();
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean writeEntry(OutputStream out, ChatSession entry, long previousChatId) throws IOException {
+        User user = entry.user();
+        int flags = (user != null ? HAS_USER : 0) | (entry.state() != null ? HAS_STATE : 0);
+        if (flags == 0) {
+            return false;
+        }
+        out.write(flags);
+        writeVarLong(out, zigzagEncode(entry.chatId() - previousChatId));
+        if (user != null) {
+            out.write(encode(user.sex()));
+            out.write(encode(user.activityLevel()));
+            writeVarLong(out, zigzagEncode(user.age()));
+            writeVarLong(out, zigzagEncode(user.height()));
+            writeVarLong(out, zigzagEncode(user.weight()));
+        }
+        if (entry.state() != null) {
+            out.write(encode(entry.state()));
+        }
+        return true;
+    }
+
+    private static int encode(Enum<?> value) {
+        return value != null ? value.ordinal() + 1 : 0;
+    }
+
+    private static <E> E decode(E[] values, int code) throws IOException {
+        if (code > values.length) {
+            throw new IOException("Unknown enum code " + code);
+        }
+        return code == 0 ? null : values[code - 1];
+    }
+
+    private static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated compact snapshot");
+        }
+        return b;
+    }
+}
@@ -0,0 +1,31 @@
+package nutrition.storage;
+
+import nutrition.model.user.ChatSession;
+
+/**
+ * Ограниченный кэш горячих записей чатов перед хранилищем на диске.
+ * Вытесненные записи просто удаляются: хранилище за кэшем всегда содержит актуальные данные.
+ */
+public interface EntryCache {
+
+    ChatSession get(long chatId);
+
+    void put(ChatSession entry);
+
+    // Кладёт запись, только если её ещё нет, чтобы не затереть более свежую
+    void putIfAbsent(ChatSession entry);
+
+    void invalidate(long chatId);
+
+    int size();
+
+    long evictions();
+
+    static EntryCache create(String policy, int capacity) {
+        return switch (policy.toLowerCase()) {
+            case "lru" -> new LruEntryCache(capacity);
+            case "tinylfu" -> new TinyLfuEntryCache(capacity);
+            default -> throw new IllegalArgumentException("Unknown cache policy: " + policy);
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package nutrition.storage;
+
+/**
+ * Count-min sketch с 4-битными счётчиками для оценки частоты обращений к чатам.
+ * Когда число инкрементов достигает {@code 10 * capacity}, все счётчики делятся пополам,
+ * чтобы давно популярные чаты постепенно устаревали. Не потокобезопасен.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    // 16 четырёхбитных счётчиков в каждом long
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(8, capacity) - 1) << 1;
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(8, capacity);
+    }
+
+    int frequency(long key) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, counter(key, i));
+        }
+        return frequency;
+    }
+
+    void increment(long key) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = index(key, i);
+            int shift = offset(key, i);
+            if (((table[index] >>> shift) & 0xF) < 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        additions /= 2;
+    }
+
+    private int counter(long key, int row) {
+        return (int) ((table[index(key, row)] >>> offset(key, row)) & 0xF);
+    }
+
+    private int index(long key, int row) {
+        long h = (key + SEEDS[row]) * SEEDS[row];
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static int offset(long key, int row) {
+        // Каждая строка берёт свою четверть long, счётчик внутри неё - по хешу ключа
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (row << 4) + ((int) (h >>> (60 - row)) & 0x3) * 4;
+    }
+}
@@ -0,0 +1,156 @@
+package nutrition.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.User;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Потоковое чтение и запись снапшота пользователей в JSON:
+ * {@code {"users": {"<chatId>": {...}}, "userStates": {"<chatId>": "STATE"}}}.
+ * <p>
+ * Записи обрабатываются по одной, поэтому расход памяти не зависит от числа пользователей.
+ * Запись идёт во временный файл, который после fsync атомарно заменяет основной.
+ */
+public class JsonSnapshot {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader userReader;
+    private final ObjectWriter userWriter;
+
+    public JsonSnapshot(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.userReader = objectMapper.readerFor(User.class);
+        this.userWriter = objectMapper.writerFor(User.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    /**
+     * Источник записей снапшота. Обходится дважды: сначала за пользователями, затем за состояниями.
+     */
+    @FunctionalInterface
+    public interface EntrySource {
+        void forEach(Consumer<ChatSession> consumer);
+    }
+
+    public void read(Path file, Consumer<User> users, ObjLongConsumer<RegistrationState> states) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)) {
+            read(in, users, states);
+        }
+    }
+
+    public void read(InputStream in, Consumer<User> users, ObjLongConsumer<RegistrationState> states) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Snapshot must start with an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT && "users".equals(section)) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        parser.nextToken();
+                        User user = userReader.readValue(parser);
+                        if (user != null) {
+                            users.accept(user);
+                        }
+                    }
+                } else if (token == JsonToken.START_OBJECT && "userStates".equals(section)) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        long chatId = Long.parseLong(parser.currentName());
+                        parser.nextToken();
+                        states.accept(RegistrationState.valueOf(parser.getText()), chatId);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    public void write(Path file, EntrySource source) throws IOException {
+        RecordFiles.writeAtomically(file, out -> write(out, source));
+    }
+
+    /**
+     * Пишет снапшот в поток, не закрывая его.
+     */
+    public void write(OutputStream out, EntrySource source) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.writeStartObject();
+
+            generator.writeObjectFieldStart("users");
+            forEach(source, entry -> {
+                if (entry.user() != null) {
+                    generator.writeFieldName(Long.toString(entry.chatId()));
+                    userWriter.writeValue(generator, entry.user());
+                }
+            });
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("userStates");
+            forEach(source, entry -> {
+                if (entry.state() != null) {
+                    generator.writeStringField(Long.toString(entry.chatId()), entry.state().name());
+                }
+            });
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+        }
+    }
+
+    interface EntryWriter {
+        void write(ChatSession entry) throws IOException;
+    }
+
+    static void forEach(EntrySource source, EntryWriter writer) throws IOException {
+        try {
+            source.forEach(entry -> {
+                try {
+                    writer.write(entry);
+                } catch (IOException e) {
+                    throw new SnapshotWriteException(e);
+                }
+            });
+        } catch (SnapshotWriteException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class SnapshotWriteException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        SnapshotWriteException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package nutrition.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Раскладка файлов хранилища {@code storage.type=json}: несшардированный {@code <name>.json}
+ * от прежних версий и шарды {@code <name>-<i>-of-<N>} с базой, дельтами и журналом.
+ * <p>
+ * Через неё другие хранилища при первом запуске забирают пользователей из json-хранилища, а маркер импорта
+ * отмечает, что импорт ещё не завершён: он создаётся до создания хранилища и удаляется после импорта,
+ * так что прерванный импорт повторяется при следующем запуске.
+ */
+@Slf4j
+public final class JsonStoreFiles {
+
+    private JsonStoreFiles() {
+    }
+
+    // Имя шардов без расширения: bot-users.json -> bot-users
+    public static String baseName(String filename) {
+        return filename.replaceFirst("\\.json$", "");
+    }
+
+    public static List<StorageShard> shards(Path dir, String name, int count, SnapshotCodec snapshot) {
+        List<StorageShard> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new StorageShard(dir, name + "-" + i + "-of-" + count, snapshot));
+        }
+        return result;
+    }
+
+    public static StorageShard legacy(Path dir, String name, SnapshotCodec snapshot) {
+        return new StorageShard(dir, name, snapshot);
+    }
+
+    /**
+     * Числа шардов, для которых в каталоге есть файлы.
+     */
+    public static SortedSet<Integer> shardCounts(Path dir, String name) throws IOException {
+        Pattern layout = Pattern.compile(Pattern.quote(name) + "-\\d+-of-(\\d+)\\..*");
+        SortedSet<Integer> counts = new TreeSet<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(path -> {
+                Matcher matcher = layout.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    counts.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        return counts;
+    }
+
+    /**
+     * Читает всё json-хранилище во всех найденных раскладках, включая дельты и хвосты журналов,
+     * и отдаёт каждый чат один раз в его последнем состоянии.
+     *
+     * @return число найденных файлов шардов, 0 если импортировать нечего
+     */
+    public static int read(Path dir, String filename, SnapshotCodec snapshot, Consumer<ChatSession> consumer)
+            throws IOException {
+        String name = baseName(filename);
+        List<StorageShard> found = new ArrayList<>();
+        StorageShard legacy = legacy(dir, name, snapshot);
+        if (legacy.exists()) {
+            found.add(legacy);
+        }
+        for (int count : shardCounts(dir, name)) {
+            for (StorageShard shard : shards(dir, name, count, snapshot)) {
+                if (shard.exists()) {
+                    found.add(shard);
+                }
+            }
+        }
+        if (found.isEmpty()) {
+            return 0;
+        }
+        LongUserMap entries = new LongUserMap();
+        for (StorageShard shard : found) {
+            shard.load(entries);
+        }
+        entries.forEach(consumer);
+        log.info("Read {} chats from {} json storage files in {}", entries.size(), found.size(), dir);
+        return found.size();
+    }
+
+    public static Path importMarker(Path dir, String storeName) {
+        return dir.resolve(storeName + ".importing");
+    }
+
+    public static void startImport(Path marker) throws IOException {
+        if (!Files.exists(marker)) {
+            Files.createFile(marker);
+            RecordFiles.syncDirectory(marker.toAbsolutePath().getParent());
+        }
+    }
+
+    public static void finishImport(Path marker) throws IOException {
+        Files.deleteIfExists(marker);
+        RecordFiles.syncDirectory(marker.toAbsolutePath().getParent());
+    }
+}
@@ -0,0 +1,310 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Конкурентная хеш-таблица чатов с ключом-примитивом long.
+ * <p>
+ * Профиль и состояние чата лежат в одном слоте параллельных примитивных массивов,
+ * поэтому на запись не создаются ни Long, ни узлы, ни объекты User: около 24 байт на чат
+ * против сотен байт у пары ConcurrentHashMap. Таблица поделена на сегменты со своими
+ * {@link StampedLock}: чтение идёт без блокировки (optimistic read), запись блокирует только свой сегмент.
+ * chatId 0 зарезервирован под пустой слот.
+ */
+public class LongUserMap {
+
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final float MAX_LOAD = 0.75f;
+
+    private static final int HAS_USER = 1;
+    private static final int HAS_STATE = 2;
+
+    private static final Sex[] SEXES = Sex.values();
+    private static final ActivityLevel[] ACTIVITIES = ActivityLevel.values();
+    private static final RegistrationState[] STATES = RegistrationState.values();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public LongUserMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public ChatSession get(long chatId) {
+        return segmentFor(chatId).get(chatId);
+    }
+
+    public User getUser(long chatId) {
+        ChatSession entry = get(chatId);
+        return entry != null ? entry.user() : null;
+    }
+
+    public RegistrationState getState(long chatId) {
+        ChatSession entry = get(chatId);
+        return entry != null ? entry.state() : null;
+    }
+
+    /**
+     * Атомарно заменяет запись чата результатом функции. Запись без профиля и состояния удаляется.
+     *
+     * @return запись до изменения
+     */
+    public ChatSession update(long chatId, UnaryOperator<ChatSession> function) {
+        if (chatId == 0) {
+            throw new IllegalArgumentException("chatId 0 is reserved for empty slots");
+        }
+        return segmentFor(chatId).update(chatId, function);
+    }
+
+    public void put(ChatSession entry) {
+        update(entry.chatId(), previous -> entry);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Обходит сегменты по очереди. Сегмент копируется под блокировкой чтения, а consumer вызывается
+     * после её снятия, поэтому медленный потребитель не задерживает запись.
+     */
+    public void forEach(Consumer<ChatSession> consumer) {
+        for (Segment segment : segments) {
+            segment.forEach(consumer);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segmentFor(long chatId) {
+        return segments[hash(chatId) >>> (Integer.SIZE - SEGMENT_SHIFT)];
+    }
+
+    // Видна в пакете, чтобы тесты могли подобрать ключи с коллизиями
+    static int hash(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+
+        ChatSession get(long chatId) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                ChatSession entry = table.read(chatId);
+                if (lock.validate(stamp)) {
+                    return entry;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return table.read(chatId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        ChatSession update(long chatId, UnaryOperator<ChatSession> function) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.find(chatId);
+                ChatSession previous = table.keys[slot] == chatId ? table.entryAt(slot) : null;
+                ChatSession updated = function.apply(previous);
+                if (updated == null || (updated.user() == null && updated.state() == null)) {
+                    if (previous != null) {
+                        table.remove(slot);
+                    }
+                    return previous;
+                }
+                if (previous == null) {
+                    if (table.size + 1 > table.keys.length * MAX_LOAD) {
+                        table = table.resize();
+                        slot = table.find(chatId);
+                    }
+                    table.size++;
+                }
+                table.write(slot, chatId, updated);
+                return previous;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return table.size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        // Сегмент копируется под блокировкой, consumer вызывается уже без неё
+        void forEach(Consumer<ChatSession> consumer) {
+            List<ChatSession> entries;
+            long stamp = lock.readLock();
+            try {
+                Table current = table;
+                entries = new ArrayList<>(current.size);
+                for (int slot = 0; slot < current.keys.length; slot++) {
+                    if (current.keys[slot] != 0) {
+                        entries.add(current.entryAt(slot));
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            entries.forEach(consumer);
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                table = new Table(INITIAL_SEGMENT_CAPACITY);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private static final class Table {
+
+        final long[] keys;
+        final int[] ages;
+        final int[] heights;
+        final int[] weights;
+        // flags | sex << 8 | activity << 16 | state << 24, енамы как ordinal + 1
+        final int[] meta;
+        int size;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            ages = new int[capacity];
+            heights = new int[capacity];
+            weights = new int[capacity];
+            meta = new int[capacity];
+        }
+
+        // Слот с этим ключом либо пустой слот, где цепочка проб оборвалась
+        int find(long chatId) {
+            int mask = keys.length - 1;
+            int slot = hash(chatId) & mask;
+            for (int probes = 0; probes < keys.length; probes++) {
+                long key = keys[slot];
+                if (key == chatId || key == 0) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // Возможно только при чтении без блокировки во время изменения, validate() его отбросит
+            return slot;
+        }
+
+        ChatSession read(long chatId) {
+            int slot = find(chatId);
+            return keys[slot] == chatId ? entryAt(slot) : null;
+        }
+
+        ChatSession entryAt(int slot) {
+            long chatId = keys[slot];
+            int packed = meta[slot];
+            User user = null;
+            if ((packed & HAS_USER) != 0) {
+                user = new User(chatId, ages[slot], heights[slot], weights[slot],
+                        decode(SEXES, packed >>> 8), decode(ACTIVITIES, packed >>> 16));
+            }
+            RegistrationState state = (packed & HAS_STATE) != 0 ? decode(STATES, packed >>> 24) : null;
+            return new ChatSession(chatId, user, state);
+        }
+
+        void write(int slot, long chatId, ChatSession entry) {
+            User user = entry.user();
+            RegistrationState state = entry.state();
+            int packed = (user != null ? HAS_USER : 0) | (state != null ? HAS_STATE : 0);
+            if (user != null) {
+                packed |= encode(user.sex()) << 8 | encode(user.activityLevel()) << 16;
+                ages[slot] = user.age();
+                heights[slot] = user.height();
+                weights[slot] = user.weight();
+            }
+            packed |= encode(state) << 24;
+            meta[slot] = packed;
+            keys[slot] = chatId;
+        }
+
+        // Удаление со сдвигом назад, чтобы не оставлять надгробий
+        void remove(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (slot + 1) & mask;
+            while (keys[next] != 0) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    move(next, hole);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            meta[hole] = 0;
+            size--;
+        }
+
+        Table resize() {
+            Table resized = new Table(keys.length * 2);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    int target = resized.find(keys[slot]);
+                    resized.keys[target] = keys[slot];
+                    resized.ages[target] = ages[slot];
+                    resized.heights[target] = heights[slot];
+                    resized.weights[target] = weights[slot];
+                    resized.meta[target] = meta[slot];
+                }
+            }
+            resized.size = size;
+            return resized;
+        }
+
+        private void move(int from, int to) {
+            ages[to] = ages[from];
+            heights[to] = heights[from];
+            weights[to] = weights[from];
+            meta[to] = meta[from];
+            keys[to] = keys[from];
+        }
+
+        private static int encode(Enum<?> value) {
+            return value != null ? value.ordinal() + 1 : 0;
+        }
+
+        private static <E> E decode(E[] values, int packed) {
+            int code = packed & 0xFF;
+            return code != 0 && code <= values.length ? values[code - 1] : null;
+        }
+    }
+}
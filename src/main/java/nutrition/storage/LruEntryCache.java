@@ -0,0 +1,98 @@
+package nutrition.storage;
+
+import nutrition.model.user.ChatSession;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU-кэш, поделённый на сегменты с отдельными блокировками.
+ */
+class LruEntryCache implements EntryCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder evictions = new LongAdder();
+
+    LruEntryCache(int capacity) {
+        int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    @Override
+    public ChatSession get(long chatId) {
+        Segment segment = segmentFor(chatId);
+        synchronized (segment) {
+            return segment.get(chatId);
+        }
+    }
+
+    @Override
+    public void put(ChatSession entry) {
+        Segment segment = segmentFor(entry.chatId());
+        synchronized (segment) {
+            segment.put(entry.chatId(), entry);
+        }
+    }
+
+    @Override
+    public void putIfAbsent(ChatSession entry) {
+        Segment segment = segmentFor(entry.chatId());
+        synchronized (segment) {
+            segment.putIfAbsent(entry.chatId(), entry);
+        }
+    }
+
+    @Override
+    public void invalidate(long chatId) {
+        Segment segment = segmentFor(chatId);
+        synchronized (segment) {
+            segment.remove(chatId);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(long chatId) {
+        return segments[Math.floorMod(Long.hashCode(chatId), SEGMENTS)];
+    }
+
+    private class Segment extends LinkedHashMap<Long, ChatSession> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ChatSession> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package nutrition.storage;
+
+import nutrition.model.user.ChatSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Хранилище пользователей в отображённом в память файле.
+ * <p>
+ * Файл - это хеш-таблица с открытой адресацией из слотов {@link UserRecordCodec#RECORD_SIZE} байт,
+ * ключ - chatId (0 означает пустой слот). Изменение чата - запись одного слота на месте,
+ * при старте файл просто отображается в память без десериализации.
+ * При заполнении больше чем на {@link #MAX_LOAD} таблица перестраивается в файл вдвое больше.
+ * Запись без профиля и состояния не хранится: слот освобождается, как в {@link LongUserMap}.
+ * <p>
+ * Изменения попадают в page cache сразу, а на диск - при {@link #force()}: хранилище, которое им владеет,
+ * вызывает его по расписанию, так что при падении теряются записи только за последний интервал.
+ */
+public class MappedUserStore implements Closeable {
+
+    private static final int MAGIC = 0x4E425531; // "NBU1"
+    private static final int HEADER_SIZE = 32;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int SIZE_OFFSET = 8;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final double MAX_LOAD = 0.7;
+    private static final int FOR_EACH_BATCH = 1024;
+    private static final byte[] EMPTY_RECORD = new byte[UserRecordCodec.RECORD_SIZE];
+
+    private final Path file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    // Были изменения после последнего force()
+    private volatile boolean dirty;
+
+    private MappedUserStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Открывает файл хранилища или создаёт новый, если его нет.
+     */
+    public static MappedUserStore open(Path file, int initialCapacity) throws IOException {
+        MappedUserStore store = new MappedUserStore(file);
+        if (Files.exists(file)) {
+            store.map(file);
+            store.removeEmptyRecords();
+        } else {
+            create(file, tableCapacity(initialCapacity)).force();
+            store.map(file);
+        }
+        return store;
+    }
+
+    public ChatSession get(long chatId) {
+        return read(chatId, entry -> entry);
+    }
+
+    /**
+     * Читает запись чата и применяет к ней функцию, не отпуская блокировку,
+     * так что параллельное обновление не может вклиниться между чтением и функцией.
+     */
+    public <T> T read(long chatId, Function<ChatSession, T> function) {
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(chatId);
+            return function.apply(keyAt(slot) != 0 ? UserRecordCodec.read(buffer, offset(slot)) : null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Атомарно обновляет запись чата. Функция получает текущую запись (или null) и возвращает новую;
+     * запись без профиля и состояния удаляет чат.
+     *
+     * @return запись до изменения
+     */
+    public ChatSession update(long chatId, UnaryOperator<ChatSession> function) throws IOException {
+        return update(chatId, function, entry -> { });
+    }
+
+    /**
+     * То же, что {@link #update(long, UnaryOperator)}, но после записи вызывает {@code written}
+     * с новой записью под той же блокировкой. При удалении чата это пустая запись.
+     */
+    public ChatSession update(long chatId, UnaryOperator<ChatSession> function,
+                            Consumer<ChatSession> written) throws IOException {
+        if (chatId == 0) {
+            throw new IllegalArgumentException("chatId 0 is reserved for empty slots");
+        }
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(chatId);
+            boolean exists = keyAt(slot) != 0;
+            ChatSession previous = exists ? UserRecordCodec.read(buffer, offset(slot)) : null;
+            ChatSession updated = function.apply(previous);
+            if (updated == null || updated == previous) {
+                return previous;
+            }
+            if (updated.user() == null && updated.state() == null) {
+                if (exists) {
+                    removeSlot(slot);
+                    dirty = true;
+                    written.accept(updated);
+                }
+                return previous;
+            }
+            if (!exists && size + 1 > capacity * MAX_LOAD) {
+                grow();
+                slot = findSlot(chatId);
+            }
+            UserRecordCodec.write(buffer, offset(slot), updated);
+            dirty = true;
+            if (!exists) {
+                size++;
+                buffer.putInt(SIZE_OFFSET, size);
+            }
+            written.accept(updated);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Обходит записи пачками: под блокировкой чтения пачка только копируется, а consumer вызывается
+     * после её снятия, так что медленный потребитель (например, выгрузка в HTTP) не держит обновления чатов.
+     * Обход слабо согласован: изменения во время обхода могут быть видны, а могут и нет.
+     */
+    public void forEach(Consumer<ChatSession> consumer) {
+        long[] keys;
+        lock.readLock().lock();
+        try {
+            // Ключи, а не слоты: при росте таблицы между пачками записи переезжают в другие слоты
+            keys = new long[size];
+            int count = 0;
+            for (int slot = 0; slot < capacity && count < keys.length; slot++) {
+                long key = keyAt(slot);
+                if (key != 0) {
+                    keys[count++] = key;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<ChatSession> batch = new ArrayList<>(FOR_EACH_BATCH);
+        for (int from = 0; from < keys.length; from += FOR_EACH_BATCH) {
+            batch.clear();
+            lock.readLock().lock();
+            try {
+                for (int i = from; i < Math.min(keys.length, from + FOR_EACH_BATCH); i++) {
+                    int slot = findSlot(keys[i]);
+                    if (keyAt(slot) != 0) {
+                        batch.add(UserRecordCodec.read(buffer, offset(slot)));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            batch.forEach(consumer);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Сбрасывает изменённые страницы файла на диск, если с прошлого раза что-то менялось.
+     * Блокировка берётся только чтобы взять текущее отображение: msync идёт без неё и не держит обновления.
+     */
+    public void force() {
+        if (!dirty) {
+            return;
+        }
+        MappedByteBuffer current;
+        lock.readLock().lock();
+        try {
+            dirty = false;
+            current = buffer;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // После grow() старое отображение уже сброшено, а новое сбрасывается там же
+        current.force();
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    // Возвращает слот с этим chatId либо первый пустой слот в цепочке
+    private int findSlot(long chatId) {
+        int mask = capacity - 1;
+        int slot = hash(chatId) & mask;
+        while (true) {
+            long key = keyAt(slot);
+            if (key == chatId || key == 0) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Удаление со сдвигом назад, чтобы не оставлять надгробий в цепочках проб
+    private void removeSlot(int slot) {
+        int mask = capacity - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        long key;
+        while ((key = keyAt(next)) != 0) {
+            int home = hash(key) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                buffer.put(offset(hole), buffer, offset(next), UserRecordCodec.RECORD_SIZE);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        buffer.put(offset(hole), EMPTY_RECORD);
+        size--;
+        buffer.putInt(SIZE_OFFSET, size);
+    }
+
+    // Файлы прежних версий могли хранить пустые записи вместо удаления - убираем их при открытии
+    private void removeEmptyRecords() {
+        List<Long> empty = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            if (keyAt(slot) != 0) {
+                ChatSession entry = UserRecordCodec.read(buffer, offset(slot));
+                if (entry.user() == null && entry.state() == null) {
+                    empty.add(entry.chatId());
+                }
+            }
+        }
+        for (long key : empty) {
+            removeSlot(findSlot(key));
+        }
+    }
+
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException("User store is full: " + size + " records");
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        MappedByteBuffer old = buffer;
+        int oldCapacity = capacity;
+
+        buffer = create(tmp, capacity * 2);
+        capacity = capacity * 2;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int from = offset(slot);
+            long key = old.getLong(from);
+            if (key != 0) {
+                buffer.put(offset(findSlot(key)), old, from, UserRecordCodec.RECORD_SIZE);
+            }
+        }
+        buffer.putInt(SIZE_OFFSET, size);
+        buffer.force();
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (channel.size() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a user store file: " + path);
+            }
+            int fileCapacity = mapped.getInt(CAPACITY_OFFSET);
+            if (channel.size() != fileSize(fileCapacity)) {
+                throw new IOException("Truncated user store file: " + path);
+            }
+            this.buffer = mapped;
+            this.capacity = fileCapacity;
+            this.size = mapped.getInt(SIZE_OFFSET);
+        }
+    }
+
+    private static MappedByteBuffer create(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Отображение за концом файла растягивает его нулями, то есть пустыми слотами
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(CAPACITY_OFFSET, capacity);
+            mapped.putInt(SIZE_OFFSET, 0);
+            return mapped;
+        }
+    }
+
+    private long keyAt(int slot) {
+        return buffer.getLong(offset(slot));
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * UserRecordCodec.RECORD_SIZE;
+    }
+
+    private static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * UserRecordCodec.RECORD_SIZE;
+    }
+
+    private static int tableCapacity(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected) - 1) << 1;
+        return Math.min(capacity, MAX_CAPACITY);
+    }
+
+    private static int hash(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
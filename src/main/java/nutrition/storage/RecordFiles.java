@@ -0,0 +1,113 @@
+package nutrition.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Общие операции над файлами из записей {@link UserRecordCodec}, пронумерованными как {@code <prefix><generation>}.
+ */
+@Slf4j
+final class RecordFiles {
+
+    static final int BUFFER_SIZE = UserRecordCodec.RECORD_SIZE * 2048;
+
+    private RecordFiles() {
+    }
+
+    static List<Path> list(Path dir, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> result = new ArrayList<>(files
+                    .filter(path -> isNumbered(path.getFileName().toString(), prefix))
+                    .toList());
+            result.sort(Comparator.comparingLong(path -> generationOf(path, prefix)));
+            return result;
+        }
+    }
+
+    static long generationOf(Path path, String prefix) {
+        return Long.parseLong(path.getFileName().toString().substring(prefix.length()));
+    }
+
+    /**
+     * Читает записи файла по порядку. Недописанный или повреждённый хвост пропускается.
+     *
+     * @return число прочитанных записей
+     */
+    static int read(Path file, Consumer<ChatSession> consumer) throws IOException {
+        int count = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.remaining() >= UserRecordCodec.RECORD_SIZE) {
+                    consumer.accept(UserRecordCodec.read(buffer));
+                    count++;
+                }
+                buffer.compact();
+            }
+            if (buffer.position() > 0) {
+                log.warn("Ignoring {} trailing bytes of torn record in {}", buffer.position(), file);
+            }
+        } catch (IllegalStateException e) {
+            log.warn("Stopped reading {} after {} records: {}", file, count, e.getMessage());
+        }
+        return count;
+    }
+
+    interface StreamWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Пишет файл через временный: после fsync он атомарно заменяет основной.
+     */
+    static void writeAtomically(Path file, StreamWriter writer) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            writer.write(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.toAbsolutePath().getParent());
+    }
+
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Не все файловые системы позволяют fsync каталога
+            log.debug("Directory fsync is not supported for {}", dir);
+        }
+    }
+
+    private static boolean isNumbered(String filename, String prefix) {
+        if (!filename.startsWith(prefix) || filename.length() == prefix.length()) {
+            return false;
+        }
+        for (int i = prefix.length(); i < filename.length(); i++) {
+            if (!Character.isDigit(filename.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
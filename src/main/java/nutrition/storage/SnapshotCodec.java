@@ -0,0 +1,71 @@
+package nutrition.storage;
+
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.User;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Выбор формата снапшота: пишет в настроенном ({@code json} или {@code compact}),
+ * а читает любой из двух, определяя формат по первым байтам файла.
+ */
+public class SnapshotCodec {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JsonSnapshot json;
+    private final CompactSnapshot compact = new CompactSnapshot();
+    private final boolean writeCompact;
+
+    public SnapshotCodec(JsonSnapshot json, String format) {
+        this.json = json;
+        this.writeCompact = switch (format.toLowerCase()) {
+            case "json" -> false;
+            case "compact" -> true;
+            default -> throw new IllegalArgumentException("Unknown snapshot format: " + format);
+        };
+    }
+
+    // Расширение файлов в настроенном формате
+    public String extension() {
+        return writeCompact ? ".snap" : ".json";
+    }
+
+    public String otherExtension() {
+        return writeCompact ? ".json" : ".snap";
+    }
+
+    public void read(Path file, Consumer<User> users, ObjLongConsumer<RegistrationState> states) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)) {
+            in.mark(4);
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                magic = (magic << 8) | (b & 0xFF);
+            }
+            in.reset();
+            if (magic == CompactSnapshot.MAGIC) {
+                compact.read(in, users, states);
+            } else {
+                json.read(in, users, states);
+            }
+        }
+    }
+
+    public void write(Path file, JsonSnapshot.EntrySource source) throws IOException {
+        if (writeCompact) {
+            RecordFiles.writeAtomically(file, out -> compact.write(out, source));
+        } else {
+            json.write(file, source);
+        }
+    }
+}
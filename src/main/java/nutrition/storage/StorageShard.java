@@ -0,0 +1,228 @@
+package nutrition.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+
+/**
+ * Файлы одной части хранилища: базовый снапшот {@code <name>.json} или {@code <name>.snap}, дельты и журнал.
+ * <p>
+ * Шард сам отслеживает изменённые чаты и сохраняется независимо от остальных:
+ * чекпоинт пишет дельту только если в шарде были изменения, слияние трогает только его базу.
+ * Снапшот в другом формате читается, пока слияние не перепишет его в настроенном.
+ */
+@Slf4j
+public class StorageShard implements Closeable {
+
+    private final String name;
+    private final Path baseFile;
+    // Снапшот в формате, отличном от настроенного
+    private final Path otherBaseFile;
+    private final SnapshotCodec snapshot;
+    private final UserJournal journal;
+    private final UserDeltaFiles deltaFiles;
+
+    // Чаты, изменённые после последнего чекпоинта
+    private final AtomicReference<Set<Long>> dirty = new AtomicReference<>(ConcurrentHashMap.newKeySet());
+    // Изменение (пометка + запись в журнал) - под чтением, ротация журнала с заменой набора - под записью,
+    // иначе пометка может попасть в уже выписанный набор, а её сегмент журнала удалится следующим чекпоинтом
+    private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
+
+    private volatile long lastCheckpointRecords;
+    private volatile long lastCheckpointBytes;
+
+    public StorageShard(Path dir, String name, SnapshotCodec snapshot) {
+        this.name = name;
+        this.baseFile = dir.resolve(name + snapshot.extension());
+        this.otherBaseFile = dir.resolve(name + snapshot.otherExtension());
+        this.snapshot = snapshot;
+        this.journal = new UserJournal(dir, name);
+        this.deltaFiles = new UserDeltaFiles(dir, name);
+    }
+
+    /**
+     * Загружает базовый снапшот, затем дельты, затем хвост журнала.
+     * Проигранный журнал помечается изменённым, чтобы попасть в ближайший чекпоинт до удаления сегментов.
+     */
+    public void load(LongUserMap entries) throws IOException {
+        Path base = currentBase();
+        if (base != null) {
+            snapshot.read(base,
+                    user -> entries.update(user.chatId(), entry -> new ChatSession(user.chatId(), user,
+                            entry != null ? entry.state() : null)),
+                    (state, chatId) -> entries.update(chatId, entry -> new ChatSession(chatId,
+                            entry != null ? entry.user() : null, state)));
+        }
+        for (Path delta : deltaFiles.list()) {
+            deltaFiles.read(delta, entries::put);
+        }
+        journal.replay(entry -> {
+            entries.put(entry);
+            dirty.get().add(entry.chatId());
+        });
+    }
+
+    public void open() throws IOException {
+        journal.open();
+    }
+
+    public void recordChange(long chatId, LongFunction<ChatSession> lookup) {
+        changeLock.readLock().lock();
+        try {
+            dirty.get().add(chatId);
+            journal.append(chatId, lookup);
+        } finally {
+            changeLock.readLock().unlock();
+        }
+    }
+
+    public void sync() throws IOException {
+        journal.sync();
+    }
+
+    /**
+     * Пишет в дельту только чаты, изменённые с прошлого чекпоинта, и удаляет вошедший в неё журнал.
+     *
+     * @return true, если дельта была записана
+     */
+    public synchronized boolean checkpoint(LongFunction<ChatSession> lookup) throws IOException {
+        if (dirty.get().isEmpty()) {
+            return false;
+        }
+        long sealedGeneration;
+        Set<Long> changed;
+        changeLock.writeLock().lock();
+        try {
+            sealedGeneration = journal.rotate();
+            changed = dirty.getAndSet(ConcurrentHashMap.newKeySet());
+        } finally {
+            changeLock.writeLock().unlock();
+        }
+        try {
+            lastCheckpointBytes = deltaFiles.write(sealedGeneration, changed, lookup);
+        } catch (IOException e) {
+            dirty.get().addAll(changed);
+            throw e;
+        }
+        journal.deleteUpTo(sealedGeneration);
+        lastCheckpointRecords = changed.size();
+        return true;
+    }
+
+    /**
+     * Вливает накопленные дельты в базовый снапшот, не поднимая его целиком в память.
+     *
+     * @return время слияния в миллисекундах, 0 если дельт не было
+     */
+    public long merge() throws IOException {
+        List<Path> deltas = deltaFiles.list();
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Map<Long, ChatSession> overlay = new HashMap<>();
+        for (Path delta : deltas) {
+            deltaFiles.read(delta, entry -> overlay.put(entry.chatId(), entry));
+        }
+
+        Path base = currentBase();
+        snapshot.write(baseFile, consumer -> {
+            if (base != null) {
+                try {
+                    snapshot.read(base,
+                            user -> {
+                                if (!overlay.containsKey(user.chatId())) {
+                                    consumer.accept(new ChatSession(user.chatId(), user, null));
+                                }
+                            },
+                            (state, chatId) -> {
+                                if (!overlay.containsKey(chatId)) {
+                                    consumer.accept(new ChatSession(chatId, null, state));
+                                }
+                            });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            overlay.values().forEach(consumer);
+        });
+        if (base != null && !base.equals(baseFile)) {
+            Files.delete(base);
+        }
+        deltaFiles.delete(deltas);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Merged {} deltas ({} chats) into {} in {} ms", deltas.size(), overlay.size(), baseFile, millis);
+        return millis;
+    }
+
+    /**
+     * Перезаписывает базовый снапшот целиком, например при смене числа шардов.
+     */
+    public void writeBase(JsonSnapshot.EntrySource source) throws IOException {
+        snapshot.write(baseFile, source);
+        Files.deleteIfExists(otherBaseFile);
+    }
+
+    /**
+     * Удаляет все файлы шарда. Журнал к этому моменту не должен быть открыт.
+     */
+    public void deleteFiles() throws IOException {
+        deltaFiles.delete(deltaFiles.list());
+        journal.deleteUpTo(Long.MAX_VALUE);
+        Files.deleteIfExists(baseFile);
+        Files.deleteIfExists(otherBaseFile);
+    }
+
+    public boolean exists() throws IOException {
+        return currentBase() != null || !deltaFiles.list().isEmpty() || journal.hasSegments();
+    }
+
+    // Снапшот в настроенном формате важнее: другой может остаться после сбоя между записью и удалением
+    private Path currentBase() {
+        if (Files.exists(baseFile)) {
+            return baseFile;
+        }
+        return Files.exists(otherBaseFile) ? otherBaseFile : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDirtyCount() {
+        return dirty.get().size();
+    }
+
+    public long getJournalBytes() {
+        return journal.size();
+    }
+
+    public long getLastCheckpointRecords() {
+        return lastCheckpointRecords;
+    }
+
+    public long getLastCheckpointBytes() {
+        return lastCheckpointBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
@@ -0,0 +1,140 @@
+package nutrition.storage;
+
+import nutrition.model.user.ChatSession;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш с политикой W-TinyLFU: новые записи попадают в маленькое LRU-окно (1% ёмкости),
+ * а вытесненная из окна запись заменяет жертву основной области, только если обращались к ней чаще.
+ * Так разовые обращения неактивных чатов не вымывают постоянно активные.
+ */
+class TinyLfuEntryCache implements EntryCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder evictions = new LongAdder();
+
+    TinyLfuEntryCache(int capacity) {
+        int segmentCapacity = Math.max(2, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    @Override
+    public ChatSession get(long chatId) {
+        Segment segment = segmentFor(chatId);
+        synchronized (segment) {
+            return segment.get(chatId);
+        }
+    }
+
+    @Override
+    public void put(ChatSession entry) {
+        Segment segment = segmentFor(entry.chatId());
+        synchronized (segment) {
+            segment.put(entry, true);
+        }
+    }
+
+    @Override
+    public void putIfAbsent(ChatSession entry) {
+        Segment segment = segmentFor(entry.chatId());
+        synchronized (segment) {
+            segment.put(entry, false);
+        }
+    }
+
+    @Override
+    public void invalidate(long chatId) {
+        Segment segment = segmentFor(chatId);
+        synchronized (segment) {
+            segment.window.remove(chatId);
+            segment.main.remove(chatId);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.window.size() + segment.main.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(long chatId) {
+        return segments[Math.floorMod(Long.hashCode(chatId), SEGMENTS)];
+    }
+
+    private class Segment {
+
+        final Map<Long, ChatSession> window = new LinkedHashMap<>(16, 0.75f, true);
+        final Map<Long, ChatSession> main = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch;
+        final int windowCapacity;
+        final int mainCapacity;
+
+        Segment(int capacity) {
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = capacity - windowCapacity;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        ChatSession get(long chatId) {
+            sketch.increment(chatId);
+            ChatSession entry = window.get(chatId);
+            return entry != null ? entry : main.get(chatId);
+        }
+
+        void put(ChatSession entry, boolean replace) {
+            long chatId = entry.chatId();
+            if (window.containsKey(chatId)) {
+                if (replace) {
+                    window.put(chatId, entry);
+                }
+                return;
+            }
+            if (main.containsKey(chatId)) {
+                if (replace) {
+                    main.put(chatId, entry);
+                }
+                return;
+            }
+            sketch.increment(chatId);
+            window.put(chatId, entry);
+            if (window.size() > windowCapacity) {
+                Iterator<ChatSession> eldest = window.values().iterator();
+                ChatSession candidate = eldest.next();
+                eldest.remove();
+                admit(candidate);
+            }
+        }
+
+        private void admit(ChatSession candidate) {
+            if (main.size() < mainCapacity) {
+                main.put(candidate.chatId(), candidate);
+                return;
+            }
+            Iterator<Map.Entry<Long, ChatSession>> eldest = main.entrySet().iterator();
+            Map.Entry<Long, ChatSession> victim = eldest.next();
+            evictions.increment();
+            if (sketch.frequency(candidate.chatId()) > sketch.frequency(victim.getKey())) {
+                eldest.remove();
+                main.put(candidate.chatId(), candidate);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package nutrition.storage;
+
+import nutrition.model.user.ChatSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Файлы инкрементальных чекпоинтов: {@code <name>.delta.<generation>}.
+ * <p>
+ * Дельта содержит текущие записи только изменившихся чатов; удалённый чат пишется записью
+ * без профиля и состояния. Дельты применяются поверх базового снапшота по возрастанию номера.
+ */
+public class UserDeltaFiles {
+
+    private final Path dir;
+    private final String prefix;
+
+    public UserDeltaFiles(Path dir, String name) {
+        this.dir = dir;
+        this.prefix = name + ".delta.";
+    }
+
+    /**
+     * Атомарно пишет дельту с текущими записями перечисленных чатов.
+     *
+     * @return размер дельты в байтах
+     */
+    public long write(long generation, Collection<Long> chatIds, LongFunction<ChatSession> lookup) throws IOException {
+        Path file = dir.resolve(prefix + generation);
+        Path tmp = dir.resolve(prefix + generation + ".tmp");
+        long bytes = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RecordFiles.BUFFER_SIZE);
+            for (long chatId : chatIds) {
+                if (buffer.remaining() < UserRecordCodec.RECORD_SIZE) {
+                    bytes += drain(buffer, channel);
+                }
+                ChatSession entry = lookup.apply(chatId);
+                UserRecordCodec.write(buffer, entry != null ? entry : new ChatSession(chatId, null, null));
+            }
+            bytes += drain(buffer, channel);
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        RecordFiles.syncDirectory(dir);
+        return bytes;
+    }
+
+    public List<Path> list() throws IOException {
+        return RecordFiles.list(dir, prefix);
+    }
+
+    public int read(Path delta, Consumer<ChatSession> consumer) throws IOException {
+        return RecordFiles.read(delta, consumer);
+    }
+
+    public void delete(List<Path> deltas) throws IOException {
+        for (Path delta : deltas) {
+            Files.deleteIfExists(delta);
+        }
+    }
+
+    private static int drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return bytes;
+    }
+}
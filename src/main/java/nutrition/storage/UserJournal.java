@@ -0,0 +1,181 @@
+package nutrition.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import nutrition.model.user.ChatSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Журнал изменений пользователей (write-ahead log).
+ * <p>
+ * Каждое изменение дописывает в текущий сегмент полную запись чата ({@link UserRecordCodec}).
+ * Записи копятся в буфере и сбрасываются на диск пачкой вызовом {@link #sync()} (group commit),
+ * поэтому при падении теряется не больше одного интервала синхронизации.
+ * Сегменты нумеруются по возрастанию: после снапшота закрытые сегменты удаляются через {@link #deleteUpTo(long)}.
+ */
+@Slf4j
+public class UserJournal implements Closeable {
+
+    private final Path dir;
+    private final String segmentPrefix;
+    private final Object lock = new Object();
+    private final ByteBuffer buffer = ByteBuffer.allocate(RecordFiles.BUFFER_SIZE);
+
+    private FileChannel channel;
+    private long generation;
+    private long segmentSize;
+    private boolean unsynced;
+
+    public UserJournal(Path dir, String name) {
+        this.dir = dir;
+        this.segmentPrefix = name + ".journal.";
+    }
+
+    /**
+     * Проигрывает все сегменты по порядку. Недописанный хвост сегмента пропускается.
+     */
+    public void replay(Consumer<ChatSession> consumer) throws IOException {
+        for (Path segment : segments()) {
+            int count = RecordFiles.read(segment, consumer);
+            log.info("Replayed {} journal records from {}", count, segment);
+        }
+    }
+
+    /**
+     * Открывает новый сегмент после всех существующих. Вызывать после {@link #replay(Consumer)}.
+     */
+    public void open() throws IOException {
+        synchronized (lock) {
+            List<Path> segments = segments();
+            generation = segments.isEmpty() ? 1 : generationOf(segments.get(segments.size() - 1)) + 1;
+            channel = openSegment(generation);
+            segmentSize = 0;
+        }
+    }
+
+    /**
+     * Дописывает запись чата. Состояние читается под блокировкой журнала,
+     * поэтому последняя запись по чату всегда отражает его актуальное состояние.
+     */
+    public void append(long chatId, LongFunction<ChatSession> snapshot) {
+        synchronized (lock) {
+            try {
+                if (buffer.remaining() < UserRecordCodec.RECORD_SIZE) {
+                    writeBuffer();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write journal segment " + generation, e);
+            }
+            ChatSession entry = snapshot.apply(chatId);
+            // Чат уже удалён из таблицы: пишем пустую запись, чтобы удаление пережило перезапуск
+            UserRecordCodec.write(buffer, entry != null ? entry : new ChatSession(chatId, null, null));
+            segmentSize += UserRecordCodec.RECORD_SIZE;
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные записи на диск одним fsync.
+     */
+    public void sync() throws IOException {
+        FileChannel toSync;
+        synchronized (lock) {
+            if (buffer.position() > 0) {
+                writeBuffer();
+            }
+            if (!unsynced) {
+                return;
+            }
+            unsynced = false;
+            toSync = channel;
+        }
+        try {
+            toSync.force(false);
+        } catch (ClosedChannelException e) {
+            // Сегмент уже закрыт ротацией, которая сама делает fsync
+        }
+    }
+
+    /**
+     * Закрывает текущий сегмент и начинает новый.
+     *
+     * @return номер закрытого сегмента: всё, что записано до ротации, лежит в сегментах не новее него
+     */
+    public long rotate() throws IOException {
+        synchronized (lock) {
+            closeSegment();
+            long sealed = generation;
+            generation++;
+            channel = openSegment(generation);
+            segmentSize = 0;
+            return sealed;
+        }
+    }
+
+    public void deleteUpTo(long sealedGeneration) throws IOException {
+        for (Path segment : segments()) {
+            if (generationOf(segment) <= sealedGeneration) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    public boolean hasSegments() throws IOException {
+        return !segments().isEmpty();
+    }
+
+    public long size() {
+        synchronized (lock) {
+            return segmentSize;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (channel != null) {
+                closeSegment();
+                channel = null;
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        channel.close();
+        unsynced = false;
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        unsynced = true;
+    }
+
+    private FileChannel openSegment(long segmentGeneration) throws IOException {
+        Path path = dir.resolve(segmentPrefix + segmentGeneration);
+        return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private List<Path> segments() throws IOException {
+        return RecordFiles.list(dir, segmentPrefix);
+    }
+
+    private long generationOf(Path segment) {
+        return RecordFiles.generationOf(segment, segmentPrefix);
+    }
+}
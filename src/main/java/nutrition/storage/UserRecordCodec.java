@@ -0,0 +1,89 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Запись фиксированной длины для одного чата:
+ * chatId(8) | flags(1) | sex(1) | activity(1) | state(1) | age(4) | height(4) | weight(4).
+ * Енамы хранятся как ordinal + 1, 0 означает null.
+ */
+public final class UserRecordCodec {
+
+    public static final int RECORD_SIZE = 24;
+
+    private static final byte HAS_USER = 1;
+    private static final byte HAS_STATE = 2;
+
+    private static final Sex[] SEXES = Sex.values();
+    private static final ActivityLevel[] ACTIVITIES = ActivityLevel.values();
+    private static final RegistrationState[] STATES = RegistrationState.values();
+
+    private UserRecordCodec() {
+    }
+
+    public static void write(ByteBuffer buffer, ChatSession entry) {
+        write(buffer, buffer.position(), entry);
+        buffer.position(buffer.position() + RECORD_SIZE);
+    }
+
+    public static void write(ByteBuffer buffer, int offset, ChatSession entry) {
+        User user = entry.user();
+        RegistrationState state = entry.state();
+        byte flags = (byte) ((user != null ? HAS_USER : 0) | (state != null ? HAS_STATE : 0));
+
+        buffer.putLong(offset, entry.chatId());
+        buffer.put(offset + 8, flags);
+        buffer.put(offset + 9, user != null ? ordinal(user.sex()) : 0);
+        buffer.put(offset + 10, user != null ? ordinal(user.activityLevel()) : 0);
+        buffer.put(offset + 11, ordinal(state));
+        buffer.putInt(offset + 12, user != null ? user.age() : 0);
+        buffer.putInt(offset + 16, user != null ? user.height() : 0);
+        buffer.putInt(offset + 20, user != null ? user.weight() : 0);
+    }
+
+    public static ChatSession read(ByteBuffer buffer) {
+        ChatSession entry = read(buffer, buffer.position());
+        buffer.position(buffer.position() + RECORD_SIZE);
+        return entry;
+    }
+
+    public static ChatSession read(ByteBuffer buffer, int offset) {
+        long chatId = buffer.getLong(offset);
+        byte flags = buffer.get(offset + 8);
+        if ((flags & ~(HAS_USER | HAS_STATE)) != 0) {
+            throw new IllegalStateException("Corrupted user record for chat " + chatId);
+        }
+
+        User user = null;
+        if ((flags & HAS_USER) != 0) {
+            user = new User(chatId,
+                    buffer.getInt(offset + 12),
+                    buffer.getInt(offset + 16),
+                    buffer.getInt(offset + 20),
+                    valueOf(SEXES, buffer.get(offset + 9)),
+                    valueOf(ACTIVITIES, buffer.get(offset + 10)));
+        }
+        RegistrationState state = (flags & HAS_STATE) != 0 ? valueOf(STATES, buffer.get(offset + 11)) : null;
+        return new ChatSession(chatId, user, state);
+    }
+
+    private static byte ordinal(Enum<?> value) {
+        return value != null ? (byte) (value.ordinal() + 1) : 0;
+    }
+
+    private static <E> E valueOf(E[] values, byte code) {
+        if (code == 0) {
+            return null;
+        }
+        if (code < 0 || code > values.length) {
+            throw new IllegalStateException("Corrupted user record: unknown code " + code);
+        }
+        return values[code - 1];
+    }
+}
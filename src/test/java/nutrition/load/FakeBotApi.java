@@ -0,0 +1,155 @@
+package nutrition.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Подмена Telegram Bot API на localhost для нагрузочных прогонов.
+ * <p>
+ * Бот ходит сюда по {@code bot.api-url}: {@code getUpdates} отдаёт апдейты из очереди
+ * (long polling, как у настоящего API), {@code sendMessage} передаёт ответ в {@link ReplyListener}.
+ * На остальные методы (deleteWebhook и т.п.) отвечает {@code true}.
+ */
+public class FakeBotApi implements AutoCloseable {
+
+    public interface ReplyListener {
+        void onReply(long chatId, String text);
+    }
+
+    private static final int MAX_UPDATES_PER_POLL = 100;
+
+    static {
+        // Без TCP_NODELAY заголовки и тело ответа уходят двумя пакетами, и каждый запрос ждёт delayed ACK ~40 мс
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<ObjectNode> updates = new LinkedBlockingQueue<>();
+    private final AtomicLong updateIds = new AtomicLong();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ReplyListener listener;
+
+    public FakeBotApi(ReplyListener listener) throws IOException {
+        this.listener = listener;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Кладёт текстовое сообщение пользователя в очередь, бот заберёт его ближайшим getUpdates.
+     */
+    public void postMessage(long chatId, String text, String languageCode) {
+        long updateId = updateIds.incrementAndGet();
+        ObjectNode update = objectMapper.createObjectNode();
+        update.put("update_id", updateId);
+        ObjectNode message = update.putObject("message");
+        message.put("message_id", updateId);
+        message.put("date", System.currentTimeMillis() / 1000);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        message.putObject("from").put("id", chatId).put("is_bot", false)
+                .put("first_name", "load" + chatId).put("language_code", languageCode);
+        message.put("text", text);
+        updates.add(update);
+    }
+
+    public int pendingUpdates() {
+        return updates.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            // Имена методов в Bot API не зависят от регистра, библиотека пишет их строчными
+            String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            JsonNode request = readBody(exchange);
+            JsonNode result = switch (method) {
+                case "getupdates" -> getUpdates(request);
+                case "sendmessage" -> sendMessage(request);
+                default -> objectMapper.getNodeFactory().booleanNode(true);
+            };
+            ObjectNode response = objectMapper.createObjectNode();
+            response.put("ok", true);
+            response.set("result", result);
+            byte[] body = objectMapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readAllBytes();
+            return body.length > 0 ? objectMapper.readTree(body) : objectMapper.createObjectNode();
+        }
+    }
+
+    // Ждёт первый апдейт не дольше timeout из запроса, остальные забирает без ожидания
+    private ArrayNode getUpdates(JsonNode request) throws InterruptedException {
+        ArrayNode result = objectMapper.createArrayNode();
+        int limit = Math.min(request.path("limit").asInt(MAX_UPDATES_PER_POLL), MAX_UPDATES_PER_POLL);
+        if (limit <= 0) {
+            limit = MAX_UPDATES_PER_POLL;
+        }
+        ObjectNode first = updates.poll(request.path("timeout").asInt(0), TimeUnit.SECONDS);
+        if (first != null) {
+            result.add(first);
+            ObjectNode next;
+            while (result.size() < limit && (next = updates.poll()) != null) {
+                result.add(next);
+            }
+        }
+        return result;
+    }
+
+    private ObjectNode sendMessage(JsonNode request) {
+        long chatId = request.path("chat_id").asLong();
+        String text = request.path("text").asText();
+        listener.onReply(chatId, text);
+
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("message_id", messageIds.incrementAndGet());
+        message.put("date", System.currentTimeMillis() / 1000);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        message.put("text", text);
+        return message;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,262 @@
+package nutrition.load;
+
+import com.sun.management.ThreadMXBean;
+import nutrition.App;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сквозной нагрузочный прогон: настоящее приложение в режиме long polling против {@link FakeBotApi}.
+ * <p>
+ * Каждый виртуальный пользователь проходит регистрацию от /start до меню расчётов
+ * (пол, возраст, вес, рост, активность) и затем запрашивает несколько расчётов.
+ * Следующее сообщение уходит только после ответа бота на предыдущее, как у живого человека.
+ * Задержка шага - от постановки апдейта в getUpdates до прихода sendMessage с ответом.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nutrition.load.LoadGenerator
+ * -Dexec.args="--users 2000 --calculations 5"}. Любое свойство приложения можно переопределить через -D,
+ * например {@code -Dstorage.type=jdbc}.
+ */
+public class LoadGenerator {
+
+    private static final String LANGUAGE = "en";
+    private static final String[] CALCULATION_KEYS = {
+            "calculation.water", "calculation.calories", "calculation.macros", "calculation.sodium", "calculation.iron"
+    };
+    // Чаты нагрузки не пересекаются с настоящими id
+    private static final long FIRST_CHAT_ID = 9_000_000_000L;
+
+    private final FakeBotApi api;
+    private final List<String> script;
+    private final Map<Long, VirtualUser> users = new ConcurrentHashMap<>();
+    private final AtomicLong unexpectedReplies = new AtomicLong();
+
+    private long[] latencies;
+    private AtomicInteger recorded;
+    private CountDownLatch finished;
+
+    private LoadGenerator(int calculations) throws IOException {
+        this.api = new FakeBotApi(this::onReply);
+        this.script = script(messages(), calculations);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        int userCount = Integer.parseInt(options.getOrDefault("users", "1000"));
+        int calculations = Integer.parseInt(options.getOrDefault("calculations", "5"));
+        int warmupUsers = Integer.parseInt(options.getOrDefault("warmup", String.valueOf(Math.max(1, userCount / 5))));
+        long timeoutSeconds = Long.parseLong(options.getOrDefault("timeout", "300"));
+
+        Path dataDir = Files.createTempDirectory("nutrition-load");
+        LoadGenerator generator = new LoadGenerator(calculations);
+        ConfigurableApplicationContext context = startApp(generator.api.url(), dataDir);
+        int exitCode = 0;
+        try {
+            // Прогрев JIT и хранилища на отдельных чатах, в отчёт не попадает
+            generator.run(FIRST_CHAT_ID, warmupUsers, timeoutSeconds);
+            Result result = generator.run(FIRST_CHAT_ID + warmupUsers, userCount, timeoutSeconds);
+            result.print();
+            if (!result.completed) {
+                exitCode = 1;
+            }
+        } finally {
+            context.close();
+            generator.api.close();
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext startApp(String apiUrl, Path dataDir) {
+        SpringApplication application = new SpringApplication(App.class);
+        // Значения по умолчанию, -D и переменные окружения их перекрывают
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("bot.token", "load-test");
+        defaults.put("bot.mode", "polling");
+        defaults.put("bot.api-url", apiUrl);
+        defaults.put("server.port", "0");
+        defaults.put("admin.chatid", "1");
+        defaults.put("storage.data-path", dataDir.toString() + "/");
+        defaults.put("bot.export.on-shutdown", "false");
+        // Меряем сам бот, а не ограничения Telegram на частоту отправки
+        defaults.put("bot.sender.global-rate", "1000000");
+        defaults.put("bot.sender.chat-rate", "1000000");
+        defaults.put("bot.sender.chat-burst", "1000");
+        application.setDefaultProperties(defaults);
+        return application.run();
+    }
+
+    private Result run(long firstChatId, int userCount, long timeoutSeconds) throws InterruptedException {
+        latencies = new long[userCount * script.size()];
+        recorded = new AtomicInteger();
+        finished = new CountDownLatch(userCount);
+        users.clear();
+        unexpectedReplies.set(0);
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.gc();
+        long allocatedBefore = allocatedBytes(threads);
+        long[] gcBefore = gcTotals();
+        long started = System.nanoTime();
+
+        for (int i = 0; i < userCount; i++) {
+            VirtualUser user = new VirtualUser(firstChatId + i);
+            users.put(user.chatId, user);
+            user.sendNext();
+        }
+        boolean completed = finished.await(timeoutSeconds, TimeUnit.SECONDS);
+
+        long elapsed = System.nanoTime() - started;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        long[] gcAfter = gcTotals();
+        return new Result(completed, userCount, Arrays.copyOf(latencies, recorded.get()), elapsed, allocated,
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], unexpectedReplies.get());
+    }
+
+    private void onReply(long chatId, String text) {
+        VirtualUser user = users.get(chatId);
+        if (user == null) {
+            // Например, сводка новых пользователей в админский чат
+            return;
+        }
+        user.onReply();
+    }
+
+    private final class VirtualUser {
+
+        final long chatId;
+        int step;
+        long sentAt;
+
+        VirtualUser(long chatId) {
+            this.chatId = chatId;
+        }
+
+        synchronized void sendNext() {
+            sentAt = System.nanoTime();
+            api.postMessage(chatId, script.get(step), LANGUAGE);
+        }
+
+        void onReply() {
+            synchronized (this) {
+                if (step >= script.size()) {
+                    unexpectedReplies.incrementAndGet();
+                    return;
+                }
+                latencies[recorded.getAndIncrement()] = System.nanoTime() - sentAt;
+                step++;
+                if (step < script.size()) {
+                    sendNext();
+                    return;
+                }
+            }
+            finished.countDown();
+        }
+    }
+
+    private record Result(boolean completed, int users, long[] latencies, long elapsedNanos, long allocatedBytes,
+                          long gcCount, long gcMillis, long unexpectedReplies) {
+
+        void print() {
+            Arrays.sort(latencies);
+            double seconds = elapsedNanos / 1e9;
+            int steps = latencies.length;
+            System.out.printf("users: %d, steps: %d, completed: %s, unexpected replies: %d%n",
+                    users, steps, completed, unexpectedReplies);
+            System.out.printf("duration: %.2f s, throughput: %.0f updates/s%n", seconds, steps / seconds);
+            System.out.printf("latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    percentile(0.50), percentile(0.99), percentile(1.0));
+            // Включает и аллокации самой подмены API в этой же JVM
+            System.out.printf("allocation: %.1f MB/s, %d bytes/update, gc: %d collections, %d ms%n",
+                    allocatedBytes / seconds / (1 << 20), steps > 0 ? allocatedBytes / steps : 0, gcCount, gcMillis);
+        }
+
+        private double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+    }
+
+    // Сообщения пользователя от /start до меню расчётов и затем расчёты по кругу
+    private static List<String> script(Properties messages, int calculations) {
+        List<String> script = new ArrayList<>();
+        script.add("/start");
+        script.add(messages.getProperty("menu.enter_params"));
+        script.add(messages.getProperty("param.sex.male"));
+        script.add("30");
+        script.add("75 " + messages.getProperty("metric.kg"));
+        script.add("180 " + messages.getProperty("metric.sm"));
+        script.add(messages.getProperty("param.activity.moderate"));
+        for (int i = 0; i < calculations; i++) {
+            script.add(messages.getProperty(CALCULATION_KEYS[i % CALCULATION_KEYS.length]));
+        }
+        return script;
+    }
+
+    private static Properties messages() throws IOException {
+        Properties messages = new Properties();
+        String resource = "locales/messages_" + LANGUAGE + ".properties";
+        try (InputStream in = LoadGenerator.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + resource);
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                messages.load(reader);
+            }
+        }
+        return messages;
+    }
+
+    // Сумма по живым потокам: полосы, пулы отправки и сервер подмены живут весь прогон
+    private static long allocatedBytes(ThreadMXBean threads) {
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
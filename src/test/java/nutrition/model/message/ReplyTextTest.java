@@ -0,0 +1,78 @@
+package nutrition.model.message;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplyTextTest {
+
+    @Test
+    void appendsFixedPointNumbers() {
+        assertEquals("0", fixed(0, 0));
+        assertEquals("2000", fixed(1999.6, 0));
+        assertEquals("1.05", fixed(1.05, 2));
+        assertEquals("0.007", fixed(0.007, 3));
+        assertEquals("12.000000", fixed(12, 6));
+        assertEquals("-3.50", fixed(-3.5, 2));
+        assertEquals("-0.00", fixed(-0.001, 2));
+    }
+
+    @Test
+    void padsFractionWithZeros() {
+        assertEquals("1.01", fixed(1.01, 2));
+        assertEquals("1.001", fixed(1.001, 3));
+        assertEquals("-7.0001", fixed(-7.0001, 4));
+        assertEquals("5.000010", fixed(5.00001, 6));
+    }
+
+    @Test
+    void roundsHalfUpLikeFormatter() {
+        // 73.115 * 100 в double меньше 11311.5, но %.2f округляет десятичную запись числа
+        assertEquals("73.12", fixed(73.115, 2));
+        assertEquals("-73.12", fixed(-73.115, 2));
+        assertEquals("0.13", fixed(0.125, 2));
+        assertEquals("3", fixed(2.5, 0));
+        assertEquals("-3", fixed(-2.5, 0));
+    }
+
+    @Test
+    void matchesStringFormat() {
+        Random random = new Random(11);
+        double[] special = {0.0, -0.0, 0.5, -0.5, 1e-9, -1e-9, 123456789.125, 1e15, -1e17, Double.MAX_VALUE,
+                Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double value : special) {
+            for (int decimals = 0; decimals <= 6; decimals++) {
+                assertFormatted(value, decimals);
+            }
+        }
+        for (int i = 0; i < 200_000; i++) {
+            double value = switch (i % 3) {
+                // Числа с ровно одной лишней пятёркой в конце - самые частые случаи расхождения
+                case 0 -> (random.nextInt(2_000_000) - 1_000_000) / Math.pow(10, random.nextInt(7)) + 0.0;
+                case 1 -> (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(18));
+                default -> random.nextInt(100_000) / 1000.0 + (random.nextBoolean() ? 0.0005 : -0.0005);
+            };
+            assertFormatted(value, random.nextInt(7));
+        }
+    }
+
+    @Test
+    void buildsFromParts() {
+        String text = ReplyText.start().append("BMR: ").appendFixed(1650.456, 1).append(" kcal, ")
+                .append(42L).append(" g").build();
+        assertEquals("BMR: 1650.5 kcal, 42 g", text);
+        assertEquals("next", ReplyText.start().append("next").build());
+    }
+
+    private static void assertFormatted(double value, int decimals) {
+        assertEquals(String.format(Locale.ROOT, "%." + decimals + "f", value), fixed(value, decimals),
+                value + " with " + decimals + " decimals");
+    }
+
+    private static String fixed(double value, int decimals) {
+        return ReplyText.start().appendFixed(value, decimals).build();
+    }
+}
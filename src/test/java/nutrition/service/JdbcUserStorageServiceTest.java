@@ -0,0 +1,101 @@
+package nutrition.service;
+
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JdbcUserStorageServiceTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void keepsUpdatesAcrossRestart() {
+        JdbcUserStorageService storage = open(200);
+        storage.updateSession(1, session -> session.withUser(new User(1).withAge(30)));
+        storage.updateSession(2, session -> session.withState(RegistrationState.ENTERING_SEX));
+        storage.updateSession(3, session -> session.withState(RegistrationState.START));
+        storage.updateSession(3, session -> ChatSession.empty(3));
+        storage.close();
+
+        JdbcUserStorageService reopened = open(200);
+        try {
+            assertEquals(30, reopened.getSession(1).user().age());
+            assertEquals(RegistrationState.ENTERING_SEX, reopened.getSession(2).state());
+            assertNull(reopened.getSession(3));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void updatesInterleavedWithFlushesAreNotLost() throws Exception {
+        // Flush каждую миллисекунду: записи постоянно уходят в базу и пропадают из очереди
+        // между чтением строки и публикацией нового значения
+        JdbcUserStorageService storage = open(1);
+        int threads = 4;
+        int increments = 500;
+        long[] chatIds = {11, 12, 13};
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < increments; i++) {
+                        for (long chatId : chatIds) {
+                            storage.updateSession(chatId, session -> {
+                                User user = session.userOrNew();
+                                return session.withUser(user.withAge(user.age() + 1));
+                            });
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+            storage.close();
+        }
+
+        JdbcUserStorageService reopened = open(200);
+        try {
+            for (long chatId : chatIds) {
+                assertEquals(threads * increments, reopened.getSession(chatId).user().age(), "chat " + chatId);
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private JdbcUserStorageService open(long flushIntervalMs) {
+        JdbcUserStorageService storage = new JdbcUserStorageService();
+        ReflectionTestUtils.setField(storage, "dataPath", dataDir.toString());
+        ReflectionTestUtils.setField(storage, "filename", "bot-users");
+        ReflectionTestUtils.setField(storage, "jsonFilename", "bot-users.json");
+        ReflectionTestUtils.setField(storage, "snapshotFormat", "compact");
+        ReflectionTestUtils.setField(storage, "flushIntervalMs", flushIntervalMs);
+        storage.init();
+        return storage;
+    }
+}
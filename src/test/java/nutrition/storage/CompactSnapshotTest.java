@@ -0,0 +1,108 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompactSnapshotTest {
+
+    private final CompactSnapshot snapshot = new CompactSnapshot();
+
+    @Test
+    void roundTripsSessionsWithNullFields() throws IOException {
+        List<ChatSession> sessions = List.of(
+                new ChatSession(100, new User(100, 30, 180, 80, Sex.MALE, ActivityLevel.ACTIVE),
+                        RegistrationState.CALCULATION_MENU),
+                // chatId идут не по порядку и бывают отрицательными: разности кодируются zigzag
+                new ChatSession(-1001234567890L, new User(-1001234567890L), RegistrationState.ENTERING_AGE),
+                new ChatSession(Long.MAX_VALUE, new User(Long.MAX_VALUE, 0, -5, Integer.MAX_VALUE, Sex.FEMALE, null),
+                        null),
+                new ChatSession(Long.MIN_VALUE + 1, null, RegistrationState.START),
+                new ChatSession(3, new User(3, 40, 0, 0, null, ActivityLevel.SEDENTARY), null));
+
+        assertEquals(sessions, readBack(write(sessions)));
+    }
+
+    @Test
+    void skipsTombstones() throws IOException {
+        List<ChatSession> sessions = List.of(
+                new ChatSession(1, null, RegistrationState.START),
+                ChatSession.empty(2),
+                new ChatSession(3, new User(3), null),
+                ChatSession.empty(4));
+
+        assertEquals(List.of(sessions.get(0), sessions.get(2)), readBack(write(sessions)));
+    }
+
+    @Test
+    void roundTripsEmptySnapshot() throws IOException {
+        assertEquals(List.of(), readBack(write(List.of(ChatSession.empty(1)))));
+    }
+
+    @Test
+    void roundTripsManyRandomSessions() throws IOException {
+        Random random = new Random(7);
+        Sex[] sexes = Sex.values();
+        ActivityLevel[] activities = ActivityLevel.values();
+        RegistrationState[] states = RegistrationState.values();
+        List<ChatSession> sessions = new ArrayList<>();
+        Set<Long> chatIds = new HashSet<>();
+        while (sessions.size() < 10_000) {
+            long chatId = random.nextBoolean() ? random.nextLong() : random.nextInt(1_000_000) + 1;
+            if (chatId == 0 || !chatIds.add(chatId)) {
+                continue;
+            }
+            User user = random.nextInt(4) == 0 ? null : new User(chatId, random.nextInt(120), random.nextInt(250),
+                    random.nextInt(300), random.nextBoolean() ? sexes[random.nextInt(sexes.length)] : null,
+                    random.nextBoolean() ? activities[random.nextInt(activities.length)] : null);
+            RegistrationState state = user == null || random.nextBoolean() ? states[random.nextInt(states.length)] : null;
+            sessions.add(new ChatSession(chatId, user, state));
+        }
+
+        assertEquals(sessions, readBack(write(sessions)));
+    }
+
+    @Test
+    void rejectsForeignAndTruncatedData() throws IOException {
+        assertThrows(IOException.class, () -> readBack("[]".getBytes()));
+
+        byte[] data = write(List.of(new ChatSession(1, new User(1, 30, 180, 80, Sex.MALE, ActivityLevel.LIGHT),
+                RegistrationState.CALCULATION_MENU)));
+        assertThrows(IOException.class, () -> readBack(Arrays.copyOf(data, data.length / 2)));
+    }
+
+    private byte[] write(List<ChatSession> sessions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out, sessions::forEach);
+        return out.toByteArray();
+    }
+
+    // Профиль и состояние приходят раздельно, склеиваем их обратно по chatId в порядке записи
+    private List<ChatSession> readBack(byte[] data) throws IOException {
+        Map<Long, ChatSession> sessions = new LinkedHashMap<>();
+        snapshot.read(new ByteArrayInputStream(data),
+                user -> sessions.merge(user.chatId(), new ChatSession(user.chatId(), user, null),
+                        (existing, added) -> existing.withUser(user)),
+                (state, chatId) -> sessions.merge(chatId, new ChatSession(chatId, null, state),
+                        (existing, added) -> existing.withState(state)));
+        return new ArrayList<>(sessions.values());
+    }
+}
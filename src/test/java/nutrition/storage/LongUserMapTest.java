@@ -0,0 +1,225 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongUserMapTest {
+
+    // Должны совпадать с LongUserMap: 64 сегмента, начальная таблица сегмента на 16 слотов
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int INITIAL_CAPACITY = 16;
+
+    @Test
+    void storesUserAndStateWithNullFields() {
+        LongUserMap map = new LongUserMap();
+        ChatSession full = new ChatSession(1, new User(1, 30, 180, 80, Sex.MALE, ActivityLevel.ACTIVE),
+                RegistrationState.CALCULATION_MENU);
+        ChatSession partial = new ChatSession(2, new User(2), RegistrationState.ENTERING_SEX);
+        ChatSession stateOnly = new ChatSession(-3, null, RegistrationState.START);
+
+        map.put(full);
+        map.put(partial);
+        map.put(stateOnly);
+
+        assertEquals(full, map.get(1));
+        assertEquals(partial, map.get(2));
+        assertEquals(stateOnly, map.get(-3));
+        assertNull(map.getUser(-3));
+        assertNull(map.get(4));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void emptySessionRemovesChat() {
+        LongUserMap map = new LongUserMap();
+        map.put(new ChatSession(5, new User(5), null));
+
+        ChatSession previous = map.update(5, session -> ChatSession.empty(5));
+
+        assertEquals(new ChatSession(5, new User(5), null), previous);
+        assertNull(map.get(5));
+        assertEquals(0, map.size());
+        assertNull(map.update(5, session -> null));
+    }
+
+    @Test
+    void rejectsReservedChatId() {
+        LongUserMap map = new LongUserMap();
+        assertThrows(IllegalArgumentException.class, () -> map.put(ChatSession.empty(0).withState(RegistrationState.START)));
+    }
+
+    @Test
+    void removeAndReinsertAroundWraparound() {
+        LongUserMap map = new LongUserMap();
+        // Все ключи в одном сегменте и в последнем слоте таблицы: цепочка проб переходит через конец в начало
+        long[] ids = idsInSlot(0, INITIAL_CAPACITY - 1, 5);
+        for (long id : ids) {
+            map.put(session(id, 20));
+        }
+
+        for (int removed = 0; removed < ids.length; removed++) {
+            long id = ids[removed];
+            map.update(id, session -> null);
+            assertNull(map.get(id));
+            for (long other : ids) {
+                if (other != id) {
+                    assertEquals(session(other, 20), map.get(other), "chat " + other + " after removing " + id);
+                }
+            }
+            map.put(session(id, 21));
+            assertEquals(session(id, 21), map.get(id));
+            assertEquals(ids.length, map.size());
+            map.put(session(id, 20));
+        }
+    }
+
+    @Test
+    void keepsEntriesAcrossResize() {
+        LongUserMap map = new LongUserMap();
+        // Сотни ключей в одном сегменте - таблица удваивается несколько раз
+        long[] ids = idsInSegment(7, 500);
+        for (long id : ids) {
+            map.put(session(id, 1));
+        }
+        for (int i = 0; i < ids.length; i += 3) {
+            map.update(ids[i], session -> null);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 3 == 0) {
+                assertNull(map.get(ids[i]));
+            } else {
+                assertEquals(session(ids[i], 1), map.get(ids[i]));
+            }
+        }
+        for (int i = 0; i < ids.length; i += 3) {
+            map.put(session(ids[i], 2));
+        }
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(session(ids[i], i % 3 == 0 ? 2 : 1), map.get(ids[i]));
+        }
+        assertEquals(ids.length, map.size());
+
+        List<ChatSession> visited = new ArrayList<>();
+        map.forEach(visited::add);
+        assertEquals(ids.length, visited.size());
+    }
+
+    @Test
+    void matchesHashMapUnderRandomInsertsAndRemovals() {
+        LongUserMap map = new LongUserMap();
+        Map<Long, ChatSession> expected = new HashMap<>();
+        // Мало ключей на один сегмент: длинные цепочки, удаления со сдвигом и переходы через конец таблицы
+        long[] ids = idsInSegment(3, 40);
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            long id = ids[random.nextInt(ids.length)];
+            if (random.nextInt(3) == 0) {
+                map.update(id, session -> null);
+                expected.remove(id);
+            } else {
+                ChatSession session = session(id, random.nextInt(100));
+                map.put(session);
+                expected.put(id, session);
+            }
+            if (i % 100 == 0) {
+                for (long check : ids) {
+                    assertEquals(expected.get(check), map.get(check), "chat " + check + " at step " + i);
+                }
+                assertEquals(expected.size(), map.size());
+            }
+        }
+    }
+
+    @Test
+    void concurrentUpdatesAreNotLost() throws Exception {
+        LongUserMap map = new LongUserMap();
+        int threads = 8;
+        int increments = 5_000;
+        // Ключи одного сегмента, чтобы потоки спорили за одну блокировку и таблица росла под нагрузкой
+        long[] ids = idsInSegment(11, 32);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < increments; i++) {
+                        for (long id : ids) {
+                            map.update(id, session -> session(id, session != null ? session.user().age() + 1 : 1));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Future<?> reader = executor.submit(() -> {
+                start.await();
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    for (long id : ids) {
+                        ChatSession session = map.get(id);
+                        assertTrue(session == null || session.chatId() == id && session.user().chatId() == id);
+                    }
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(1, TimeUnit.MINUTES);
+            }
+            reader.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (long id : ids) {
+            assertEquals(threads * increments, map.get(id).user().age());
+        }
+        assertEquals(ids.length, map.size());
+    }
+
+    private static ChatSession session(long chatId, int age) {
+        return new ChatSession(chatId, new User(chatId, age, 170, 70, Sex.FEMALE, ActivityLevel.LIGHT),
+                RegistrationState.CALCULATION_MENU);
+    }
+
+    private static long[] idsInSegment(int segment, int count) {
+        return idsMatching(segment, -1, count);
+    }
+
+    private static long[] idsInSlot(int segment, int slot, int count) {
+        return idsMatching(segment, slot, count);
+    }
+
+    private static long[] idsMatching(int segment, int slot, int count) {
+        long[] ids = new long[count];
+        int found = 0;
+        for (long id = 1; found < count; id++) {
+            int hash = LongUserMap.hash(id);
+            if (hash >>> (Integer.SIZE - SEGMENT_SHIFT) == segment
+                    && (slot < 0 || (hash & (INITIAL_CAPACITY - 1)) == slot)) {
+                ids[found++] = id;
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,142 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedUserStoreTest {
+
+    // Совпадает с заголовком MappedUserStore
+    private static final int HEADER_SIZE = 32;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void emptySessionFreesSlot() throws IOException {
+        try (MappedUserStore store = MappedUserStore.open(dir.resolve("users.dat"), 16)) {
+            store.update(1, session -> session(1, 30));
+            store.update(2, session -> new ChatSession(2, null, RegistrationState.START));
+
+            ChatSession previous = store.update(1, session -> ChatSession.empty(1));
+
+            assertEquals(session(1, 30), previous);
+            assertNull(store.get(1));
+            assertEquals(1, store.size());
+            assertEquals(List.of(new ChatSession(2, null, RegistrationState.START)), entries(store));
+            // Удаление неизвестного чата ничего не пишет
+            assertNull(store.update(3, session -> ChatSession.empty(3)));
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    void matchesHashMapAcrossGrowthAndReopen() throws IOException {
+        Path file = dir.resolve("users.dat");
+        Map<Long, ChatSession> expected = new HashMap<>();
+        Random random = new Random(5);
+        // Маленькая таблица и мало ключей: длинные цепочки, переходы через конец таблицы и рост файла
+        MappedUserStore store = MappedUserStore.open(file, 16);
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                long chatId = random.nextInt(60) + 1;
+                if (random.nextInt(3) == 0) {
+                    store.update(chatId, session -> ChatSession.empty(chatId));
+                    expected.remove(chatId);
+                } else {
+                    ChatSession session = session(chatId, random.nextInt(100));
+                    store.update(chatId, previous -> session);
+                    expected.put(chatId, session);
+                }
+                if (i % 500 == 0) {
+                    assertMatches(expected, store);
+                }
+                if (i % 5_000 == 0) {
+                    store.close();
+                    store = MappedUserStore.open(file, 16);
+                    assertMatches(expected, store);
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void dropsEmptyRecordsLeftByOlderVersions() throws IOException {
+        Path file = dir.resolve("users.dat");
+        try (MappedUserStore store = MappedUserStore.open(file, 16)) {
+            for (long chatId = 1; chatId <= 10; chatId++) {
+                long id = chatId;
+                store.update(id, session -> session(id, 20));
+            }
+        }
+        // Прежняя версия оставляла в слоте запись с нулевыми флагами - эмулируем это для чётных чатов
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer record = ByteBuffer.allocate(UserRecordCodec.RECORD_SIZE);
+            for (long position = HEADER_SIZE; position < channel.size(); position += UserRecordCodec.RECORD_SIZE) {
+                record.clear();
+                channel.read(record, position);
+                long chatId = record.getLong(0);
+                if (chatId != 0 && chatId % 2 == 0) {
+                    UserRecordCodec.write(record, 0, ChatSession.empty(chatId));
+                    record.clear();
+                    channel.write(record, position);
+                }
+            }
+        }
+
+        try (MappedUserStore store = MappedUserStore.open(file, 16)) {
+            assertEquals(5, store.size());
+            for (long chatId = 1; chatId <= 10; chatId++) {
+                if (chatId % 2 == 0) {
+                    assertNull(store.get(chatId));
+                } else {
+                    assertEquals(session(chatId, 20), store.get(chatId));
+                }
+            }
+        }
+    }
+
+    private static void assertMatches(Map<Long, ChatSession> expected, MappedUserStore store) {
+        assertEquals(expected.size(), store.size());
+        for (long chatId = 1; chatId <= 60; chatId++) {
+            assertEquals(expected.get(chatId), store.get(chatId), "chat " + chatId);
+        }
+        List<ChatSession> entries = entries(store);
+        assertEquals(expected.size(), entries.size());
+        for (ChatSession entry : entries) {
+            assertTrue(entry.user() != null || entry.state() != null, "empty session " + entry);
+        }
+    }
+
+    private static List<ChatSession> entries(MappedUserStore store) {
+        List<ChatSession> entries = new ArrayList<>();
+        store.forEach(entries::add);
+        return entries;
+    }
+
+    private static ChatSession session(long chatId, int age) {
+        return new ChatSession(chatId, new User(chatId, age, 170, 70, Sex.MALE, ActivityLevel.MODERATE),
+                RegistrationState.CALCULATION_MENU);
+    }
+}
@@ -0,0 +1,67 @@
+package nutrition.storage;
+
+import nutrition.model.user.ActivityLevel;
+import nutrition.model.user.ChatSession;
+import nutrition.model.user.RegistrationState;
+import nutrition.model.user.Sex;
+import nutrition.model.user.User;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UserRecordCodecTest {
+
+    @Test
+    void roundTripsSessions() {
+        List<ChatSession> sessions = List.of(
+                new ChatSession(1, new User(1, 30, 180, 80, Sex.MALE, ActivityLevel.VERY_ACTIVE),
+                        RegistrationState.CALCULATION_MENU),
+                new ChatSession(Long.MAX_VALUE, new User(Long.MAX_VALUE, Integer.MAX_VALUE, 0, -1, Sex.FEMALE,
+                        ActivityLevel.SEDENTARY), null),
+                // Незаполненный профиль: null-енамы и нули
+                new ChatSession(-1001234567890L, new User(-1001234567890L), RegistrationState.ENTERING_SEX),
+                new ChatSession(42, null, RegistrationState.START),
+                // Надгробие удалённого чата
+                ChatSession.empty(7));
+
+        ByteBuffer buffer = ByteBuffer.allocate(sessions.size() * UserRecordCodec.RECORD_SIZE);
+        for (ChatSession session : sessions) {
+            UserRecordCodec.write(buffer, session);
+        }
+        assertEquals(buffer.capacity(), buffer.position());
+
+        buffer.flip();
+        for (ChatSession session : sessions) {
+            assertEquals(session, UserRecordCodec.read(buffer));
+        }
+    }
+
+    @Test
+    void writesAtOffsetWithoutMovingPosition() {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * UserRecordCodec.RECORD_SIZE);
+        ChatSession session = new ChatSession(5, new User(5, 25, 165, 55, Sex.FEMALE, ActivityLevel.MODERATE), null);
+
+        UserRecordCodec.write(buffer, 2 * UserRecordCodec.RECORD_SIZE, session);
+
+        assertEquals(0, buffer.position());
+        assertEquals(session, UserRecordCodec.read(buffer, 2 * UserRecordCodec.RECORD_SIZE));
+        assertEquals(ChatSession.empty(0), UserRecordCodec.read(buffer, 0));
+    }
+
+    @Test
+    void rejectsCorruptedRecords() {
+        ByteBuffer buffer = ByteBuffer.allocate(UserRecordCodec.RECORD_SIZE);
+        UserRecordCodec.write(buffer, 0, new ChatSession(9, new User(9), RegistrationState.START));
+
+        buffer.put(8, (byte) 0x10);
+        assertThrows(IllegalStateException.class, () -> UserRecordCodec.read(buffer, 0));
+
+        buffer.put(8, (byte) 3);
+        buffer.put(11, (byte) (RegistrationState.values().length + 1));
+        assertThrows(IllegalStateException.class, () -> UserRecordCodec.read(buffer, 0));
+    }
+}